@@ -0,0 +1,88 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of {@link BM25FBooleanTermQuery#createWeight(IndexSearcher, boolean)}:
+ * the term is looked up in every field, and the statistics and the norm
+ * tables of every field are computed. The same term hits the term contexts
+ * cached by the reader, cycling through the whole vocabulary, larger than
+ * the cache, always misses it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BM25FCreateWeightBenchmark {
+
+  @Param({ "1", "4", "16", "32" })
+  public int numFields;
+
+  @Param({ "10000" })
+  public int numDocs;
+
+  private BenchmarkIndex index;
+  private IndexSearcher searcher;
+  private Query[] queries;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = new BenchmarkIndex(numFields, numDocs, false);
+    searcher = index.bm25fSearcher();
+    queries = new Query[BenchmarkIndex.VOCABULARY_SIZE];
+    final String mainField = index.params.getMainField();
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = new BM25FBooleanTermQuery(new Term(mainField, BenchmarkIndex.term(i)), index.params);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Benchmark
+  public Weight cachedTerm() throws IOException {
+    return searcher.createNormalizedWeight(queries[10], true);
+  }
+
+  @Benchmark
+  public Weight uncachedTerm() throws IOException {
+    final Query query = queries[next];
+    next = next + 1 == queries.length ? 0 : next + 1;
+    return searcher.createNormalizedWeight(query, true);
+  }
+
+}
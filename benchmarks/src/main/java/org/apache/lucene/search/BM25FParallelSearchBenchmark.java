@@ -0,0 +1,142 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top 10 search of the {@link BM25FBooleanQuery}s of the query log of the
+ * corpus, serial and on an executor:
+ * <ul>
+ * <li><code>SERIAL</code>: an {@link IndexSearcher} without executor, the
+ * number of threads is ignored;</li>
+ * <li><code>SEGMENTS</code>: an {@link IndexSearcher} with an executor,
+ * that searches one slice per segment whatever its cost;</li>
+ * <li><code>SLICES</code>: a {@link BM25FIndexSearcher}, that groups the
+ * segments in at most one slice per thread balanced by BM25F cost;</li>
+ * <li><code>RANGES</code>: a {@link BM25FIndexSearcher} that also splits
+ * the costly segments in ranges of doc ids, see
+ * {@link BM25FIndexSearcher#setMinDocsPerRange(int)}.</li>
+ * </ul>
+ * The hits of every slice are collected by a
+ * {@link BM25FTopScoreDocCollector} and merged, see
+ * {@link BM25FTopScoreDocCollector#manager(int)}. A single segment is only
+ * searched in parallel by <code>RANGES</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BM25FParallelSearchBenchmark {
+
+  private static final int NUM_QUERIES = 1024;
+  private static final int NUM_HITS = 10;
+  private static final int MIN_DOCS_PER_RANGE = 8192;
+
+  @Param({ "SERIAL", "SEGMENTS", "SLICES", "RANGES" })
+  public String mode;
+
+  /** the number of threads of the executor */
+  @Param({ "2", "4", "8" })
+  public int numThreads;
+
+  @Param({ "1", "8" })
+  public int numSegments;
+
+  @Param({ "4" })
+  public int numFields;
+
+  @Param({ "200000" })
+  public int numDocs;
+
+  @Param({ "4" })
+  public int maxTerms;
+
+  private BenchmarkIndex index;
+  private ExecutorService executor;
+  private IndexSearcher searcher;
+  private CollectorManager<BM25FTopScoreDocCollector, TopDocs> manager;
+  private final Query[] queries = new Query[NUM_QUERIES];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = new BenchmarkIndex(numFields, numDocs, numSegments, false);
+    switch (mode) {
+      case "SERIAL":
+        searcher = new IndexSearcher(index.reader);
+        break;
+      case "SEGMENTS":
+        executor = Executors.newFixedThreadPool(numThreads);
+        searcher = new IndexSearcher(index.reader, executor);
+        break;
+      case "SLICES":
+        executor = Executors.newFixedThreadPool(numThreads);
+        searcher = new BM25FIndexSearcher(index.reader, executor, numThreads);
+        break;
+      case "RANGES": {
+        executor = Executors.newFixedThreadPool(numThreads);
+        final BM25FIndexSearcher ranges = new BM25FIndexSearcher(index.reader, executor, numThreads);
+        ranges.setMinDocsPerRange(MIN_DOCS_PER_RANGE);
+        searcher = ranges;
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("unknown mode: " + mode);
+    }
+    searcher.setSimilarity(index.bm25fSimilarity());
+    searcher.setQueryCache(null);
+    manager = BM25FTopScoreDocCollector.manager(NUM_HITS);
+    final List<String[]> log = index.queryLog(NUM_QUERIES, maxTerms);
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      queries[i] = index.corpus.query(log.get(i));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (executor != null) {
+      executor.shutdown();
+    }
+    index.close();
+  }
+
+  @Benchmark
+  public TopDocs search() throws IOException {
+    final Query query = queries[next];
+    next = next + 1 == NUM_QUERIES ? 0 : next + 1;
+    return searcher.search(query, manager);
+  }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end top 10 search of the disjunctions of the query log of the
+ * corpus, see {@link BM25FSyntheticCorpus#queryLog(int, int)}:
+ * <ul>
+ * <li><code>BM25F</code>: a {@link BM25FBooleanQuery} collected by a
+ * {@link BM25FTopScoreDocCollector};</li>
+ * <li><code>BM25F_TERMS</code>: a {@link BooleanQuery} of
+ * {@link BM25FBooleanTermQuery}s, that saturates every term separately;</li>
+ * <li><code>BM25_CATCH_ALL</code>: a {@link BooleanQuery} of
+ * {@link TermQuery}s on a catch-all field scored with BM25, the usual
+ * alternative to BM25F;</li>
+ * <li><code>BLENDED</code>: a {@link BooleanQuery} of
+ * {@link BlendedTermQuery}s over the fields, with the field weights as
+ * boosts, scored with BM25.</li>
+ * </ul>
+ * Every invocation searches the next query of a fixed log.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BM25FSearchBenchmark {
+
+  private static final int NUM_QUERIES = 1024;
+  private static final int NUM_HITS = 10;
+
+  @Param({ "BM25F", "BM25F_TERMS", "BM25_CATCH_ALL", "BLENDED" })
+  public String impl;
+
+  @Param({ "4" })
+  public int numFields;
+
+  @Param({ "100000" })
+  public int numDocs;
+
+  /** the max number of terms of the queries of the log */
+  @Param({ "2", "4" })
+  public int maxTerms;
+
+  private BenchmarkIndex index;
+  private IndexSearcher searcher;
+  private final Query[] queries = new Query[NUM_QUERIES];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = new BenchmarkIndex(numFields, numDocs, false);
+    searcher = impl.startsWith("BM25F") ? index.bm25fSearcher() : index.bm25Searcher();
+    final List<String[]> log = index.queryLog(NUM_QUERIES, maxTerms);
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      queries[i] = query(log.get(i));
+    }
+  }
+
+  private Query query(String[] terms) {
+    final String mainField = index.params.getMainField();
+    switch (impl) {
+      case "BM25F": {
+        final BM25FBooleanQuery query = new BM25FBooleanQuery(index.params);
+        for (String term : terms) {
+          query.add(new Term(mainField, term), BooleanClause.Occur.SHOULD);
+        }
+        return query;
+      }
+      case "BM25F_TERMS": {
+        final BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String term : terms) {
+          query.add(new BM25FBooleanTermQuery(new Term(mainField, term), index.params),
+              BooleanClause.Occur.SHOULD);
+        }
+        return query.build();
+      }
+      case "BM25_CATCH_ALL": {
+        final BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String term : terms) {
+          query.add(new TermQuery(new Term(BenchmarkIndex.CATCH_ALL, term)), BooleanClause.Occur.SHOULD);
+        }
+        return query.build();
+      }
+      case "BLENDED": {
+        final BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String term : terms) {
+          final BlendedTermQuery.Builder blended = new BlendedTermQuery.Builder();
+          for (String field : index.fields) {
+            blended.add(new Term(field, term), index.params.getBoost(field));
+          }
+          query.add(blended.build(), BooleanClause.Occur.SHOULD);
+        }
+        return query.build();
+      }
+      default:
+        throw new IllegalArgumentException("unknown impl: " + impl);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Benchmark
+  public TopDocs search() throws IOException {
+    final Query query = queries[next];
+    next = next + 1 == NUM_QUERIES ? 0 : next + 1;
+    if (query instanceof BM25FBooleanQuery) {
+      final BM25FTopScoreDocCollector collector = BM25FTopScoreDocCollector.create(NUM_HITS);
+      searcher.search(query, collector);
+      return collector.topDocs();
+    }
+    return searcher.search(query, NUM_HITS);
+  }
+
+}
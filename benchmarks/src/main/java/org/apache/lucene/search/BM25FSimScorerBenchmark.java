@@ -0,0 +1,100 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.search.similarities.Similarity.SimScorer;
+import org.apache.lucene.search.similarities.Similarity.SimWeight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of scoring one posting of one field with
+ * {@link BM25FSimilarity.BM25FSimScorer}, or with the exact length scorer:
+ * a norm lookup and a multiplication.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BM25FSimScorerBenchmark {
+
+  private static final int NUM_POSTINGS = 4096;
+
+  @Param({ "false", "true" })
+  public boolean exactFieldLengths;
+
+  private BenchmarkIndex index;
+  private SimScorer scorer;
+  private final int[] docs = new int[NUM_POSTINGS];
+  private final float[] freqs = new float[NUM_POSTINGS];
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = new BenchmarkIndex(1, 100000, exactFieldLengths);
+    final IndexSearcher searcher = index.bm25fSearcher();
+    final BM25FSimilarity similarity = (BM25FSimilarity) searcher.getSimilarity(true);
+    final Term term = new Term(index.fields[0], BenchmarkIndex.term(10));
+    final TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+    final SimWeight weight = similarity.computeWeight(index.params.compile(),
+        searcher.collectionStatistics(term.field()), searcher.termStatistics(term, context));
+    scorer = similarity.simScorer(weight, searcher.getIndexReader().leaves().get(0));
+
+    final Random random = new Random(BenchmarkIndex.SEED);
+    final int maxDoc = index.reader.maxDoc();
+    for (int i = 0; i < NUM_POSTINGS; i++) {
+      docs[i] = random.nextInt(maxDoc);
+      freqs[i] = 1 + random.nextInt(4);
+    }
+    // postings are scored in doc order
+    Arrays.sort(docs);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_POSTINGS)
+  public float score() throws IOException {
+    float sum = 0;
+    for (int i = 0; i < NUM_POSTINGS; i++) {
+      sum += scorer.score(docs[i], freqs[i]);
+    }
+    return sum;
+  }
+
+}
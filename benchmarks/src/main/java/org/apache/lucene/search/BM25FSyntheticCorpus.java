@@ -0,0 +1,416 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+
+/**
+ * A deterministic generator of synthetic multi-field documents and query
+ * logs, to benchmark and test BM25F on production-shaped workloads without
+ * real data. The fields are declared with their BM25F parameters, so that
+ * the generated schema comes with its {@link BM25FParameters}:
+ *
+ * <pre>
+ * BM25FSyntheticCorpus corpus = new BM25FSyntheticCorpus(42);
+ * corpus.addField("title", 6, 0.5f, 3).addField("body", 300, 0.75f, 1);
+ * corpus.setNumDocs(1000000);
+ * corpus.setNumSegments(8);
+ * try (IndexWriter writer = new IndexWriter(dir, corpus.indexWriterConfig(analyzer))) {
+ *   corpus.index(writer);
+ * }
+ * BM25FParameters params = corpus.getParameters();
+ * for (String[] terms : corpus.queryLog(10000, 4)) {
+ *   searcher.search(corpus.query(terms), 10);
+ * }
+ * </pre>
+ *
+ * The terms of the documents are drawn from a vocabulary with a Zipfian
+ * distribution, the length of every field from a log-normal distribution
+ * around the mean length of the field. Terms are made of lowercase letters
+ * only, so that any analyzer splitting on whitespace keeps them intact.
+ *
+ * The query terms are drawn with the same distribution, skipping the most
+ * frequent terms that behave like stop words, and the queries of the log
+ * repeat with a Zipfian popularity, like the head and tail queries of a real
+ * log. Every document depends only on the seed, the settings and its id, and
+ * the query log only on the seed and the settings. A corpus is not thread
+ * safe.
+ */
+public final class BM25FSyntheticCorpus {
+
+  /** The field holding the id of the generated documents. */
+  public static final String ID_FIELD = "id";
+
+  // spreads the seeds of the documents and of the query log
+  private static final long DOC_SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final long QUERY_SEED_SALT = 0x5DEECE66DL;
+
+  // the standard deviation of the log of the field lengths
+  private static final double LENGTH_SIGMA = 0.5;
+
+  private final long seed;
+  private final BM25FParameters params = new BM25FParameters();
+  private final List<Integer> meanLengths = new ArrayList<>();
+  private int numDocs = 10000;
+  private int numSegments = 1;
+  private int vocabularySize = 50000;
+  private double zipfExponent = 1.0;
+  private String catchAllField;
+
+  // the term distribution, dropped when a setting changes
+  private Zipf terms;
+
+  public BM25FSyntheticCorpus(long seed) {
+    this.seed = seed;
+    // without catch-all field, no field holds the text of all the fields
+    params.setDocFreqMode(BM25FParameters.DocFreqMode.ESTIMATED_UNION);
+  }
+
+  /**
+   * Adds a field whose length is on average <code>meanLength</code> terms.
+   * Without catch-all field, the first field is the main field of the
+   * parameters, see {@link #setCatchAllField(String)}.
+   *
+   * @param fieldLengthBoost the length normalization parameter (b) of the
+   *          field
+   * @param fieldWeight the weight of the field
+   */
+  public BM25FSyntheticCorpus addField(String field, int meanLength, float fieldLengthBoost,
+      float fieldWeight) {
+    if (meanLength <= 0) {
+      throw new IllegalArgumentException("meanLength must be > 0, got " + meanLength);
+    }
+    if (field.equals(ID_FIELD) || field.equals(catchAllField)
+        || Arrays.asList(params.getFields()).contains(field)) {
+      throw new IllegalArgumentException("duplicate field: " + field);
+    }
+    params.addFieldParams(field, fieldLengthBoost, fieldWeight);
+    if (meanLengths.isEmpty() && catchAllField == null) {
+      params.setMainField(field);
+    }
+    meanLengths.add(meanLength);
+    return this;
+  }
+
+  /**
+   * @return the parameters of the fields, a copy that can be modified
+   */
+  public BM25FParameters getParameters() {
+    return params.clone();
+  }
+
+  /**
+   * @return the fields, in the order they were added
+   */
+  public String[] getFields() {
+    return params.getFields();
+  }
+
+  public int getNumDocs() {
+    return numDocs;
+  }
+
+  public void setNumDocs(int numDocs) {
+    if (numDocs < 0) {
+      throw new IllegalArgumentException("numDocs must be >= 0, got " + numDocs);
+    }
+    this.numDocs = numDocs;
+  }
+
+  public int getNumSegments() {
+    return numSegments;
+  }
+
+  /**
+   * Sets the number of segments of the generated index, the documents are
+   * split evenly, see {@link #index(IndexWriter)}. By default 1.
+   */
+  public void setNumSegments(int numSegments) {
+    if (numSegments <= 0) {
+      throw new IllegalArgumentException("numSegments must be > 0, got " + numSegments);
+    }
+    this.numSegments = numSegments;
+  }
+
+  public int getVocabularySize() {
+    return vocabularySize;
+  }
+
+  /**
+   * Sets the number of distinct terms, by default 50000.
+   */
+  public void setVocabularySize(int vocabularySize) {
+    if (vocabularySize <= 0) {
+      throw new IllegalArgumentException("vocabularySize must be > 0, got " + vocabularySize);
+    }
+    this.vocabularySize = vocabularySize;
+    terms = null;
+  }
+
+  public double getZipfExponent() {
+    return zipfExponent;
+  }
+
+  /**
+   * Sets the exponent of the Zipfian distribution of the terms: the
+   * probability of the term of rank r is proportional to
+   * <code>1 / r^exponent</code>. By default 1, natural language text.
+   */
+  public void setZipfExponent(double zipfExponent) {
+    if (zipfExponent < 0) {
+      throw new IllegalArgumentException("zipfExponent must be >= 0, got " + zipfExponent);
+    }
+    this.zipfExponent = zipfExponent;
+    terms = null;
+  }
+
+  public String getCatchAllField() {
+    return catchAllField;
+  }
+
+  /**
+   * Adds to every document a field with the text of all the fields, for
+   * baselines scoring a single copy field. It is not one of the BM25F fields
+   * but the main field of the parameters, so that the idf is computed from
+   * its doc freq like in production, see
+   * {@link BM25FParameters.DocFreqMode#MAIN_FIELD}. Without catch-all field,
+   * the main field is the first field and the idf is computed from the
+   * estimated doc freq of the union of the fields, see
+   * {@link BM25FParameters.DocFreqMode#ESTIMATED_UNION}.
+   *
+   * @param catchAllField the name of the field, null for no catch-all field
+   */
+  public void setCatchAllField(String catchAllField) {
+    if (catchAllField != null && (catchAllField.equals(ID_FIELD)
+        || Arrays.asList(params.getFields()).contains(catchAllField))) {
+      throw new IllegalArgumentException("duplicate field: " + catchAllField);
+    }
+    this.catchAllField = catchAllField;
+    if (catchAllField != null) {
+      params.setMainField(catchAllField);
+      params.setDocFreqMode(BM25FParameters.DocFreqMode.MAIN_FIELD);
+    } else {
+      final String[] fields = params.getFields();
+      params.setMainField(fields.length == 0 ? null : fields[0]);
+      params.setDocFreqMode(BM25FParameters.DocFreqMode.ESTIMATED_UNION);
+    }
+  }
+
+  /**
+   * Returns the term of the given rank, rank 0 is the most frequent term:
+   * a word of lowercase letters, unique per rank.
+   */
+  public static String term(int rank) {
+    final StringBuilder term = new StringBuilder("w");
+    int r = rank;
+    do {
+      term.append((char) ('a' + r % 26));
+      r /= 26;
+    } while (r > 0);
+    return term.toString();
+  }
+
+  private Zipf terms() {
+    if (terms == null) {
+      terms = new Zipf(vocabularySize, zipfExponent);
+    }
+    return terms;
+  }
+
+  /**
+   * Returns the document with the given id, that only depends on the seed
+   * and the settings of the corpus.
+   */
+  public Document document(int id) {
+    if (meanLengths.isEmpty()) {
+      throw new IllegalStateException("no field");
+    }
+    final Random random = new Random(seed + DOC_SEED_MULTIPLIER * (id + 1));
+    final Zipf terms = terms();
+    final String[] fields = params.getFields();
+    final Document doc = new Document();
+    doc.add(new StringField(ID_FIELD, Integer.toString(id), Store.YES));
+    final StringBuilder all = catchAllField == null ? null : new StringBuilder();
+    for (int f = 0; f < fields.length; f++) {
+      final int length = length(random, meanLengths.get(f));
+      final StringBuilder text = new StringBuilder();
+      for (int i = 0; i < length; i++) {
+        text.append(term(terms.next(random))).append(' ');
+      }
+      doc.add(new TextField(fields[f], text.toString(), Store.NO));
+      if (all != null) {
+        all.append(text);
+      }
+    }
+    if (all != null) {
+      doc.add(new TextField(catchAllField, all.toString(), Store.NO));
+    }
+    return doc;
+  }
+
+  /**
+   * @return a length drawn from a log-normal distribution of the given mean,
+   *         at least 1
+   */
+  private static int length(Random random, int meanLength) {
+    final double x = Math.exp(LENGTH_SIGMA * random.nextGaussian() - LENGTH_SIGMA * LENGTH_SIGMA / 2);
+    return (int) Math.max(1, Math.round(meanLength * x));
+  }
+
+  /**
+   * Returns a configuration that makes {@link #index(IndexWriter)} create
+   * exactly {@link #getNumSegments()} segments: segments are never merged,
+   * and only flushed when a segment is complete. The buffer of the writer
+   * then holds a whole segment, callers can still change the similarity
+   * or the codec.
+   */
+  public IndexWriterConfig indexWriterConfig(Analyzer analyzer) {
+    final IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+    config.setMaxBufferedDocs(Math.max(2, docsPerSegment() + 1));
+    config.setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    return config;
+  }
+
+  private int docsPerSegment() {
+    return (numDocs + numSegments - 1) / numSegments;
+  }
+
+  /**
+   * Adds the documents of the corpus to the writer, in id order, and commits
+   * after every segment. The documents are split in
+   * {@link #getNumSegments()} segments with a writer configured by
+   * {@link #indexWriterConfig(Analyzer)}.
+   */
+  public void index(IndexWriter writer) throws IOException {
+    for (int s = 0; s < numSegments; s++) {
+      final int start = (int) ((long) numDocs * s / numSegments);
+      final int end = (int) ((long) numDocs * (s + 1) / numSegments);
+      if (start == end) {
+        continue;
+      }
+      for (int id = start; id < end; id++) {
+        writer.addDocument(document(id));
+      }
+      writer.commit();
+    }
+  }
+
+  /**
+   * Returns a query log of <code>numQueries</code> queries of at most
+   * <code>maxTerms</code> terms each. Short queries are the most frequent,
+   * and the queries are drawn from a pool of distinct queries with a
+   * Zipfian popularity, so that the head queries repeat.
+   */
+  public List<String[]> queryLog(int numQueries, int maxTerms) {
+    if (maxTerms <= 0) {
+      throw new IllegalArgumentException("maxTerms must be > 0, got " + maxTerms);
+    }
+    final Random random = new Random(seed ^ QUERY_SEED_SALT);
+    final Zipf terms = terms();
+    // the most frequent terms are rarely searched
+    final int numStopWords = Math.min(10, vocabularySize / 10);
+    final String[][] pool = new String[Math.max(1, numQueries / 4)][];
+    for (int q = 0; q < pool.length; q++) {
+      // 1 term with probability 0.45, 2 terms with probability 0.25 ...
+      int numTerms = 1;
+      while (numTerms < maxTerms && random.nextDouble() < 0.55) {
+        numTerms++;
+      }
+      pool[q] = new String[numTerms];
+      for (int t = 0; t < numTerms; t++) {
+        int rank;
+        do {
+          rank = terms.next(random);
+        } while (rank < numStopWords);
+        pool[q][t] = term(rank);
+      }
+    }
+    final Zipf popularity = new Zipf(pool.length, 1.0);
+    final List<String[]> log = new ArrayList<>(numQueries);
+    for (int i = 0; i < numQueries; i++) {
+      log.add(pool[popularity.next(random)].clone());
+    }
+    return log;
+  }
+
+  /**
+   * Writes a query log, one query per line, with its terms separated by
+   * spaces.
+   */
+  public static void writeQueryLog(List<String[]> log, Writer out) throws IOException {
+    for (String[] terms : log) {
+      for (int i = 0; i < terms.length; i++) {
+        if (i > 0) {
+          out.write(' ');
+        }
+        out.write(terms[i]);
+      }
+      out.write('\n');
+    }
+  }
+
+  /**
+   * Returns a disjunction of the given terms, searched in all the fields of
+   * the corpus.
+   */
+  public BM25FBooleanQuery query(String[] terms) {
+    final BM25FBooleanQuery query = new BM25FBooleanQuery(params.clone());
+    for (String term : terms) {
+      query.add(new Term(params.getMainField(), term), BooleanClause.Occur.SHOULD);
+    }
+    return query;
+  }
+
+  /**
+   * Draws ranks in [0, n) with a Zipfian distribution.
+   */
+  private static final class Zipf {
+    // cumulative probabilities, by rank
+    private final double[] cumulative;
+
+    Zipf(int n, double exponent) {
+      cumulative = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += 1.0 / Math.pow(i + 1, exponent);
+        cumulative[i] = sum;
+      }
+      for (int i = 0; i < n; i++) {
+        cumulative[i] /= sum;
+      }
+    }
+
+    int next(Random random) {
+      final int i = Arrays.binarySearch(cumulative, random.nextDouble());
+      return Math.min(cumulative.length - 1, i >= 0 ? i + 1 : -1 - i);
+    }
+  }
+
+}
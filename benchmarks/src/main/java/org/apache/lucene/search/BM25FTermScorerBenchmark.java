@@ -0,0 +1,115 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of scoring all the documents containing a frequent term in 1 to
+ * 32 fields: {@link BM25FTermScorer} merges the postings of the fields one
+ * document at a time, {@link BM25FTermBulkScorer} scores them in windows.
+ * The scorers are created for every invocation, like for every query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BM25FTermScorerBenchmark {
+
+  @Param({ "1", "2", "4", "8", "16", "32" })
+  public int numFields;
+
+  @Param({ "20000" })
+  public int numDocs;
+
+  /** the rank of the term in the vocabulary, 0 is the most frequent */
+  @Param({ "10", "1000" })
+  public int termRank;
+
+  private BenchmarkIndex index;
+  private Weight weight;
+  private LeafReaderContext leaf;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    index = new BenchmarkIndex(numFields, numDocs, false);
+    final IndexSearcher searcher = index.bm25fSearcher();
+    final Query query = new BM25FBooleanTermQuery(
+        new Term(index.params.getMainField(), BenchmarkIndex.term(termRank)), index.params);
+    weight = searcher.createNormalizedWeight(query, true);
+    leaf = searcher.getIndexReader().leaves().get(0);
+    if (!(weight.scorer(leaf) instanceof BM25FTermScorer)) {
+      throw new IllegalStateException("expected a BM25FTermScorer, got: " + weight.scorer(leaf));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Benchmark
+  public float iterate() throws IOException {
+    final Scorer scorer = weight.scorer(leaf);
+    final DocIdSetIterator iterator = scorer.iterator();
+    float sum = 0;
+    for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+      sum += scorer.score();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float bulk() throws IOException {
+    final SumCollector collector = new SumCollector();
+    weight.bulkScorer(leaf).score(collector, null);
+    return collector.sum;
+  }
+
+  /** sums the scores of the collected documents */
+  private static final class SumCollector implements LeafCollector {
+    private Scorer scorer;
+    float sum;
+
+    @Override
+    public void setScorer(Scorer scorer) {
+      this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      sum += scorer.score();
+    }
+  }
+
+}
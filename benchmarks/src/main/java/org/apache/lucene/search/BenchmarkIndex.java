@@ -0,0 +1,147 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.PerFieldSimilarityWrapper;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * An in-memory index of a {@link BM25FSyntheticCorpus} for the benchmarks:
+ * the first field is short like a title and the other fields are longer
+ * like a body. Every document also has a catch-all field with the text of
+ * all the fields, scored with BM25 for the baselines. The corpus is
+ * generated from a fixed seed, in a single segment unless told otherwise,
+ * so that runs are comparable.
+ */
+final class BenchmarkIndex implements Closeable {
+
+  /** the field with the text of all the BM25F fields */
+  static final String CATCH_ALL = "all";
+
+  static final long SEED = 42;
+
+  static final int VOCABULARY_SIZE = 10000;
+
+  final BM25FSyntheticCorpus corpus;
+  final BM25FParameters params;
+  final String[] fields;
+  final boolean exactFieldLengths;
+  final Directory dir;
+  final IndexReader reader;
+
+  /**
+   * @param numFields the number of BM25F fields, the catch-all field is the
+   *          main field
+   * @param exactFieldLengths see {@link BM25FSimilarity#setExactFieldLengths(boolean)}
+   */
+  BenchmarkIndex(int numFields, int numDocs, boolean exactFieldLengths) throws IOException {
+    this(numFields, numDocs, 1, exactFieldLengths);
+  }
+
+  /**
+   * @param numSegments the number of segments of equal size
+   * @see #BenchmarkIndex(int, int, boolean)
+   */
+  BenchmarkIndex(int numFields, int numDocs, int numSegments, boolean exactFieldLengths)
+      throws IOException {
+    corpus = new BM25FSyntheticCorpus(SEED);
+    for (int i = 0; i < numFields; i++) {
+      // a short and heavy title, long bodies
+      corpus.addField("f" + i, i == 0 ? 6 : 40, i == 0 ? 0.5f : 0.75f, i == 0 ? 3 : 1);
+    }
+    corpus.setNumDocs(numDocs);
+    corpus.setNumSegments(numSegments);
+    corpus.setVocabularySize(VOCABULARY_SIZE);
+    corpus.setCatchAllField(CATCH_ALL);
+    params = corpus.getParameters();
+    fields = params.getFields();
+    this.exactFieldLengths = exactFieldLengths;
+
+    final BM25FSimilarity bm25f = bm25fSimilarity();
+    final BM25Similarity bm25 = new BM25Similarity();
+    final IndexWriterConfig config = corpus.indexWriterConfig(new WhitespaceAnalyzer());
+    config.setSimilarity(new PerFieldSimilarityWrapper() {
+      @Override
+      public Similarity get(String name) {
+        return CATCH_ALL.equals(name) ? bm25 : bm25f;
+      }
+    });
+    dir = new RAMDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      corpus.index(writer);
+    }
+    reader = DirectoryReader.open(dir);
+  }
+
+  /**
+   * @return the term of the given rank, rank 0 is the most frequent term
+   */
+  static String term(int rank) {
+    return BM25FSyntheticCorpus.term(rank);
+  }
+
+  /**
+   * @return the query log of the corpus, see
+   *         {@link BM25FSyntheticCorpus#queryLog(int, int)}
+   */
+  List<String[]> queryLog(int numQueries, int maxTerms) {
+    return corpus.queryLog(numQueries, maxTerms);
+  }
+
+  BM25FSimilarity bm25fSimilarity() {
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    similarity.setExactFieldLengths(exactFieldLengths);
+    return similarity;
+  }
+
+  /**
+   * @return a searcher scoring with BM25F, without query cache
+   */
+  IndexSearcher bm25fSearcher() {
+    final IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(bm25fSimilarity());
+    searcher.setQueryCache(null);
+    return searcher;
+  }
+
+  /**
+   * @return a searcher scoring with BM25, without query cache
+   */
+  IndexSearcher bm25Searcher() {
+    final IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity());
+    searcher.setQueryCache(null);
+    return searcher;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+    dir.close();
+  }
+
+}
@@ -0,0 +1,185 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FSyntheticCorpus extends LuceneTestCase {
+
+  private static BM25FSyntheticCorpus corpus(long seed) {
+    final BM25FSyntheticCorpus corpus = new BM25FSyntheticCorpus(seed);
+    corpus.addField("title", 5, 0.5f, 3).addField("body", 50, 0.75f, 1);
+    corpus.setVocabularySize(2000);
+    return corpus;
+  }
+
+  @Test
+  public void testDeterministic() throws IOException {
+    final long seed = random().nextLong();
+    final BM25FSyntheticCorpus corpus = corpus(seed);
+    final BM25FSyntheticCorpus same = corpus(seed);
+    final BM25FSyntheticCorpus other = corpus(seed + 1);
+    boolean differ = false;
+    for (int id = 0; id < 20; id++) {
+      final Document doc = corpus.document(id);
+      assertEquals(Integer.toString(id), doc.get(BM25FSyntheticCorpus.ID_FIELD));
+      for (String field : corpus.getFields()) {
+        assertEquals(doc.get(field), same.document(id).get(field));
+        differ |= !doc.get(field).equals(other.document(id).get(field));
+      }
+    }
+    assertTrue(differ);
+    // documents do not depend on the order they are generated
+    assertEquals(corpus.document(7).get("body"), corpus(seed).document(7).get("body"));
+
+    final StringWriter log = new StringWriter();
+    final StringWriter sameLog = new StringWriter();
+    BM25FSyntheticCorpus.writeQueryLog(corpus.queryLog(100, 4), log);
+    BM25FSyntheticCorpus.writeQueryLog(same.queryLog(100, 4), sameLog);
+    assertEquals(log.toString(), sameLog.toString());
+    assertEquals(100, log.toString().split("\n").length);
+  }
+
+  @Test
+  public void testParameters() {
+    final BM25FSyntheticCorpus corpus = corpus(random().nextLong());
+    final BM25FParameters params = corpus.getParameters();
+    assertArrayEquals(new String[] { "title", "body" }, params.getFields());
+    assertEquals("title", params.getMainField());
+    assertEquals(BM25FParameters.DocFreqMode.ESTIMATED_UNION, params.getDocFreqMode());
+    assertEquals(3, params.getBoost("title"), 0f);
+    assertEquals(0.75f, params.getLengthBoost("body"), 0f);
+    // a copy
+    params.addFieldParams("other", 1, 1);
+    assertEquals(2, corpus.getParameters().getFields().length);
+
+    // the catch-all field is the main field
+    corpus.setCatchAllField("all");
+    assertEquals("all", corpus.getParameters().getMainField());
+    assertEquals(BM25FParameters.DocFreqMode.MAIN_FIELD, corpus.getParameters().getDocFreqMode());
+    assertArrayEquals(new String[] { "title", "body" }, corpus.getParameters().getFields());
+    corpus.setCatchAllField(null);
+    assertEquals(params.getMainField(), corpus.getParameters().getMainField());
+    assertEquals(params.getDocFreqMode(), corpus.getParameters().getDocFreqMode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateField() {
+    corpus(random().nextLong()).addField("body", 10, 0.75f, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateCatchAllField() {
+    corpus(random().nextLong()).setCatchAllField("body");
+  }
+
+  @Test
+  public void testDistributions() {
+    final BM25FSyntheticCorpus corpus = corpus(random().nextLong());
+    final int numDocs = 500;
+    long titleLength = 0;
+    long bodyLength = 0;
+    int mostFrequent = 0;
+    int rare = 0;
+    for (int id = 0; id < numDocs; id++) {
+      final Document doc = corpus.document(id);
+      final String[] title = doc.get("title").trim().split(" ");
+      final String[] body = doc.get("body").trim().split(" ");
+      titleLength += title.length;
+      bodyLength += body.length;
+      for (String term : body) {
+        assertTrue(term.matches("[a-z]+"));
+        if (term.equals(BM25FSyntheticCorpus.term(0))) {
+          mostFrequent++;
+        } else if (term.equals(BM25FSyntheticCorpus.term(100))) {
+          rare++;
+        }
+      }
+    }
+    // log-normal lengths around the mean lengths
+    assertEquals(5, (double) titleLength / numDocs, 1);
+    assertEquals(50, (double) bodyLength / numDocs, 5);
+    // with an exponent of 1, rank 0 is about 100 times more frequent than rank 100
+    assertTrue(mostFrequent > 20 * rare);
+
+    // head queries repeat, the most frequent terms are not searched
+    final List<String[]> log = corpus.queryLog(1000, 3);
+    assertEquals(1000, log.size());
+    final Set<String> distinct = new HashSet<>();
+    for (String[] terms : log) {
+      assertTrue(terms.length >= 1 && terms.length <= 3);
+      for (String term : terms) {
+        assertFalse(term.equals(BM25FSyntheticCorpus.term(0)));
+      }
+      distinct.add(Arrays.toString(terms));
+    }
+    assertTrue(distinct.size() <= 250);
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    final BM25FSyntheticCorpus corpus = corpus(random().nextLong());
+    corpus.setNumDocs(atLeast(200));
+    corpus.setNumSegments(1 + random().nextInt(5));
+    corpus.setCatchAllField("all");
+    final Directory dir = newDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, corpus.indexWriterConfig(new MockAnalyzer(random())))) {
+      corpus.index(writer);
+    }
+    final IndexReader reader = DirectoryReader.open(dir);
+    assertEquals(corpus.getNumDocs(), reader.numDocs());
+    assertEquals(corpus.getNumSegments(), reader.leaves().size());
+    for (LeafReaderContext context : reader.leaves()) {
+      assertNotNull(context.reader().terms("all"));
+    }
+
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(corpus.getParameters()));
+    int numHits = 0;
+    for (String[] terms : corpus.queryLog(50, 2)) {
+      final BM25FBooleanQuery query = corpus.query(terms);
+      final TopDocs topDocs = searcher.search(query, 10);
+      numHits += topDocs.totalHits;
+      // the terms of the catch-all field are the terms of the fields
+      for (String term : terms) {
+        int docFreq = 0;
+        for (String field : corpus.getFields()) {
+          docFreq = Math.max(docFreq, reader.docFreq(new Term(field, term)));
+        }
+        assertTrue(reader.docFreq(new Term("all", term)) >= docFreq);
+      }
+    }
+    assertTrue(numHits > 0);
+    reader.close();
+    dir.close();
+  }
+
+}
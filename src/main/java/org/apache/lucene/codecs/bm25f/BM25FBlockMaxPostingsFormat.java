@@ -0,0 +1,101 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene50.Lucene50PostingsFormat;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * A {@link PostingsFormat} that writes the postings with
+ * {@link Lucene50PostingsFormat}, plus a sidecar file with the
+ * {@link BM25FBlockMaxes block maxima} of the terms matching more than
+ * {@link #BLOCK_SIZE} documents. The sidecar is written at flush and merge
+ * time, and loaded in memory when the segment is opened; the terms of the
+ * fields using this format are {@link BM25FBlockMaxTerms}.
+ *
+ * BM25F scorers use the block maxima to compute an upper bound of the score
+ * of a term over a range of documents, and skip whole blocks of documents
+ * that cannot enter the top hits. To enable it on the BM25F fields:
+ *
+ * <pre>
+ * final PostingsFormat blockMax = new BM25FBlockMaxPostingsFormat();
+ * config.setCodec(new Lucene62Codec() {
+ *   &#64;Override
+ *   public PostingsFormat getPostingsFormatForField(String field) {
+ *     return blockMax;
+ *   }
+ * });
+ * </pre>
+ *
+ * The maxima only depend on the frequencies, not on the BM25F parameters,
+ * so the index does not need to be rebuilt when the parameters change.
+ */
+public final class BM25FBlockMaxPostingsFormat extends PostingsFormat {
+
+  /** the name of the format, used to load it through SPI */
+  public static final String NAME = "BM25FBlockMax";
+
+  /** number of documents per block */
+  public static final int BLOCK_SIZE = 128;
+
+  static final String EXTENSION = "bmx";
+  static final String CODEC_NAME = "BM25FBlockMax";
+  static final int VERSION_START = 0;
+  static final int VERSION_CURRENT = VERSION_START;
+
+  private final PostingsFormat delegate;
+
+  public BM25FBlockMaxPostingsFormat() {
+    super(NAME);
+    delegate = new Lucene50PostingsFormat();
+  }
+
+  @Override
+  public FieldsConsumer fieldsConsumer(SegmentWriteState state) throws IOException {
+    final FieldsConsumer postings = delegate.fieldsConsumer(state);
+    boolean success = false;
+    try {
+      final FieldsConsumer consumer = new BM25FBlockMaxWriter(state, postings);
+      success = true;
+      return consumer;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(postings);
+      }
+    }
+  }
+
+  @Override
+  public FieldsProducer fieldsProducer(SegmentReadState state) throws IOException {
+    final FieldsProducer postings = delegate.fieldsProducer(state);
+    boolean success = false;
+    try {
+      final FieldsProducer producer = new BM25FBlockMaxReader(state, postings);
+      success = true;
+      return producer;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(postings);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Reads the postings with the delegate producer and loads the block maxima
+ * of the sidecar file in memory, see {@link BM25FBlockMaxWriter} for the
+ * file format.
+ */
+final class BM25FBlockMaxReader extends FieldsProducer {
+
+  private final FieldsProducer delegate;
+  // field -> term -> block maxima
+  private final Map<String, Map<BytesRef, BM25FBlockMaxes>> blockMaxes;
+  private final long ramBytesUsed;
+
+  BM25FBlockMaxReader(SegmentReadState state, FieldsProducer delegate) throws IOException {
+    this.delegate = delegate;
+    blockMaxes = new HashMap<>();
+    long ramBytesUsed = 0;
+    final String fileName = IndexFileNames.segmentFileName(state.segmentInfo.name,
+        state.segmentSuffix, BM25FBlockMaxPostingsFormat.EXTENSION);
+    try (ChecksumIndexInput in = state.directory.openChecksumInput(fileName, state.context)) {
+      Throwable priorE = null;
+      try {
+        CodecUtil.checkIndexHeader(in, BM25FBlockMaxPostingsFormat.CODEC_NAME,
+            BM25FBlockMaxPostingsFormat.VERSION_START, BM25FBlockMaxPostingsFormat.VERSION_CURRENT,
+            state.segmentInfo.getId(), state.segmentSuffix);
+        while (in.readByte() != 0) {
+          final String field = in.readString();
+          final Map<BytesRef, BM25FBlockMaxes> terms = new HashMap<>();
+          for (int numBlocks = in.readVInt(); numBlocks != 0; numBlocks = in.readVInt()) {
+            final BytesRef term = new BytesRef(in.readVInt());
+            term.length = term.bytes.length;
+            in.readBytes(term.bytes, 0, term.length);
+            final int[] lastDocs = new int[numBlocks];
+            final int[] maxFreqs = new int[numBlocks];
+            int lastDoc = -1;
+            for (int i = 0; i < numBlocks; i++) {
+              lastDoc += in.readVInt();
+              lastDocs[i] = lastDoc;
+              maxFreqs[i] = in.readVInt();
+            }
+            final BM25FBlockMaxes maxes = new BM25FBlockMaxes(lastDocs, maxFreqs);
+            terms.put(term, maxes);
+            ramBytesUsed += maxes.ramBytesUsed() + RamUsageEstimator.sizeOf(term.bytes)
+                + 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+          }
+          blockMaxes.put(field, terms);
+        }
+      } catch (Throwable exception) {
+        priorE = exception;
+      } finally {
+        CodecUtil.checkFooter(in, priorE);
+      }
+    }
+    this.ramBytesUsed = ramBytesUsed;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return delegate.iterator();
+  }
+
+  @Override
+  public Terms terms(String field) throws IOException {
+    final Terms terms = delegate.terms(field);
+    if (terms == null) {
+      return null;
+    }
+    Map<BytesRef, BM25FBlockMaxes> fieldBlockMaxes = blockMaxes.get(field);
+    if (fieldBlockMaxes == null) {
+      fieldBlockMaxes = Collections.emptyMap();
+    }
+    return new BM25FBlockMaxTerms(terms, fieldBlockMaxes);
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  @Override
+  public void checkIntegrity() throws IOException {
+    // the sidecar is fully verified when it is loaded
+    delegate.checkIntegrity();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ramBytesUsed + delegate.ramBytesUsed();
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    final List<Accountable> resources = new ArrayList<>();
+    resources.add(Accountables.namedAccountable("block maxes", ramBytesUsed));
+    resources.add(Accountables.namedAccountable("delegate", delegate));
+    return Collections.unmodifiableList(resources);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(delegate=" + delegate + ")";
+  }
+
+}
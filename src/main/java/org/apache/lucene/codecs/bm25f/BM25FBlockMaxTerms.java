@@ -0,0 +1,45 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import java.util.Map;
+
+import org.apache.lucene.index.FilterLeafReader.FilterTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The {@link Terms} of a field written with
+ * {@link BM25FBlockMaxPostingsFormat}, giving access to the block maxima of
+ * its terms.
+ */
+public final class BM25FBlockMaxTerms extends FilterTerms {
+
+  private final Map<BytesRef, BM25FBlockMaxes> blockMaxes;
+
+  BM25FBlockMaxTerms(Terms in, Map<BytesRef, BM25FBlockMaxes> blockMaxes) {
+    super(in);
+    this.blockMaxes = blockMaxes;
+  }
+
+  /**
+   * Returns the block maxima of the given term, null if the term matches at
+   * most {@link BM25FBlockMaxPostingsFormat#BLOCK_SIZE} documents or does not
+   * exist.
+   */
+  public BM25FBlockMaxes blockMaxes(BytesRef term) {
+    return blockMaxes.get(term);
+  }
+
+}
@@ -0,0 +1,156 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import static org.apache.lucene.codecs.bm25f.BM25FBlockMaxPostingsFormat.BLOCK_SIZE;
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Writes the postings with the delegate consumer, then the block maxima of
+ * the long postings lists to the sidecar file.
+ *
+ * The file is made of a header, the fields, a 0 byte and a footer. Each
+ * field is a 1 byte followed by the field name and by its terms; each term
+ * is its number of blocks, its bytes and, for each block, the delta of its
+ * last doc and its maximum frequency, all vints. A 0 vint ends the terms of
+ * a field.
+ */
+final class BM25FBlockMaxWriter extends FieldsConsumer {
+
+  private final FieldsConsumer delegate;
+  private IndexOutput out;
+
+  // buffers for the blocks of the current term
+  private int[] lastDocs = new int[8];
+  private int[] maxFreqs = new int[8];
+
+  BM25FBlockMaxWriter(SegmentWriteState state, FieldsConsumer delegate) throws IOException {
+    this.delegate = delegate;
+    final String fileName = IndexFileNames.segmentFileName(state.segmentInfo.name,
+        state.segmentSuffix, BM25FBlockMaxPostingsFormat.EXTENSION);
+    out = state.directory.createOutput(fileName, state.context);
+    boolean success = false;
+    try {
+      CodecUtil.writeIndexHeader(out, BM25FBlockMaxPostingsFormat.CODEC_NAME,
+          BM25FBlockMaxPostingsFormat.VERSION_CURRENT, state.segmentInfo.getId(),
+          state.segmentSuffix);
+      success = true;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(out);
+      }
+    }
+  }
+
+  @Override
+  public void write(Fields fields) throws IOException {
+    delegate.write(fields);
+
+    PostingsEnum postings = null;
+    for (String field : fields) {
+      final Terms terms = fields.terms(field);
+      if (terms == null || !terms.hasFreqs()) {
+        continue;
+      }
+      out.writeByte((byte) 1);
+      out.writeString(field);
+      final TermsEnum termsEnum = terms.iterator();
+      for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+        postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+        final int numBlocks = blocks(postings);
+        if (numBlocks > 1) {
+          out.writeVInt(numBlocks);
+          out.writeVInt(term.length);
+          out.writeBytes(term.bytes, term.offset, term.length);
+          int prevLastDoc = -1;
+          for (int i = 0; i < numBlocks; i++) {
+            out.writeVInt(lastDocs[i] - prevLastDoc);
+            out.writeVInt(maxFreqs[i]);
+            prevLastDoc = lastDocs[i];
+          }
+        }
+      }
+      out.writeVInt(0);
+    }
+  }
+
+  /**
+   * Computes the blocks of the given postings in the buffers.
+   *
+   * @return the number of blocks
+   */
+  private int blocks(PostingsEnum postings) throws IOException {
+    int numBlocks = 0;
+    int count = 0;
+    int maxFreq = 0;
+    int lastDoc = -1;
+    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+      maxFreq = Math.max(maxFreq, postings.freq());
+      lastDoc = doc;
+      if (++count == BLOCK_SIZE) {
+        numBlocks = addBlock(numBlocks, lastDoc, maxFreq);
+        count = 0;
+        maxFreq = 0;
+      }
+    }
+    if (count > 0) {
+      numBlocks = addBlock(numBlocks, lastDoc, maxFreq);
+    }
+    return numBlocks;
+  }
+
+  private int addBlock(int numBlocks, int lastDoc, int maxFreq) {
+    lastDocs = ArrayUtil.grow(lastDocs, numBlocks + 1);
+    maxFreqs = ArrayUtil.grow(maxFreqs, numBlocks + 1);
+    lastDocs[numBlocks] = lastDoc;
+    maxFreqs[numBlocks] = maxFreq;
+    return numBlocks + 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out == null) {
+      return;
+    }
+    boolean success = false;
+    try {
+      out.writeByte((byte) 0);
+      CodecUtil.writeFooter(out);
+      success = true;
+    } finally {
+      if (success) {
+        IOUtils.close(out, delegate);
+      } else {
+        IOUtils.closeWhileHandlingException(out, delegate);
+      }
+      out = null;
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The block maxima of the postings of a term in a field: the postings are
+ * split in blocks of {@link BM25FBlockMaxPostingsFormat#BLOCK_SIZE}
+ * documents, and for each block the last doc and the maximum frequency of
+ * the term are recorded. Instances are immutable and shared by all the
+ * queries on a segment.
+ */
+public final class BM25FBlockMaxes {
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator
+      .shallowSizeOfInstance(BM25FBlockMaxes.class);
+
+  private final int[] lastDocs;
+  private final int[] maxFreqs;
+
+  BM25FBlockMaxes(int[] lastDocs, int[] maxFreqs) {
+    assert lastDocs.length == maxFreqs.length;
+    this.lastDocs = lastDocs;
+    this.maxFreqs = maxFreqs;
+  }
+
+  /**
+   * @return the number of blocks
+   */
+  public int size() {
+    return lastDocs.length;
+  }
+
+  /**
+   * @return the last doc of the i-th block
+   */
+  public int lastDoc(int i) {
+    return lastDocs[i];
+  }
+
+  /**
+   * @return the maximum frequency of the term in the i-th block
+   */
+  public int maxFreq(int i) {
+    return maxFreqs[i];
+  }
+
+  /**
+   * Returns the first block, starting from block <code>from</code>, whose last
+   * doc is greater than or equal to <code>target</code>, {@link #size()} if
+   * the postings do not contain docs after <code>target</code>. Callers
+   * iterating docs in order should pass the previous result as
+   * <code>from</code>.
+   */
+  public int advance(int from, int target) {
+    int i = from;
+    if (i > 0 && lastDocs[i - 1] >= target) {
+      // going backwards
+      i = 0;
+    }
+    while (i < lastDocs.length && lastDocs[i] < target) {
+      i++;
+    }
+    return i;
+  }
+
+  long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(lastDocs)
+        + RamUsageEstimator.sizeOf(maxFreqs);
+  }
+
+  @Override
+  public String toString() {
+    return "BM25FBlockMaxes(lastDocs=" + Arrays.toString(lastDocs) + ", maxFreqs="
+        + Arrays.toString(maxFreqs) + ")";
+  }
+
+}
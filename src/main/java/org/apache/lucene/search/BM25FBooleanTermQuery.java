@@ -20,16 +20,27 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.lucene.codecs.BlockTermState;
+import org.apache.lucene.codecs.bm25f.BM25FBlockMaxTerms;
+import org.apache.lucene.codecs.bm25f.BM25FBlockMaxes;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.BM25FPackedNorms;
 import org.apache.lucene.search.similarities.BM25FSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.Similarity.SimScorer;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * A boolean query made by only one term. Documents are scored using the BM25F
@@ -44,20 +55,31 @@ public class BM25FBooleanTermQuery extends Query {
     private final int docFreq;
     private final TermContext perReaderTermState;
     private final BM25FParameters bm25fParams;
-
-    // private String defaultField = SolrFields.getInstance().getDefaultField();
-    private String[] fields;
+    private final Query filter;
 
     final class BM25FTermWeight extends Weight {
         private final Similarity similarity;
         private final Similarity.SimWeight[] stats;
         private final TermContext termStates;
-        float idf;
-        public float k1;
+        // per field term states, aligned with stats
+        private final TermContext[] fieldTermStates;
+        // the weight is immutable once created, so that the segments can be
+        // scored concurrently by a searcher with an executor
+        final float idf;
+        public final float k1;
+        // upper bound of the score of a document
+        final float maxScore;
         private final String[] fields;
-        private final BM25FParameters bm25fParams;
+        private final BM25FCompiledParameters bm25fParams;
         private final String defaultField;
-        private final int field = -1;
+        // the impact field of the parameters, null if the term only matches
+        // its own field or if the fields cannot have impacts
+        private final String impactField;
+        // false if the documents are only matched, the fields are then not
+        // weighted and the postings are read without freqs and norms
+        private final boolean needsScores;
+        // the weight of the filter of the query, null if there is no filter
+        private final Weight filterWeight;
 
         protected float idf(long docFreq, long numDocs) {
             return (float) Math
@@ -65,59 +87,196 @@ public class BM25FBooleanTermQuery extends Query {
         }
 
         public BM25FTermWeight(IndexSearcher searcher, TermContext termStates,
-                               TermContext[] fieldTermStates, BM25FParameters bm25fParams)
+                               TermContext[] fieldTermStates, BM25FCompiledParameters bm25fParams,
+                               boolean needsScores, Weight filterWeight)
                 throws IOException {
             super(BM25FBooleanTermQuery.this);
             assert termStates != null : "TermContext must not be null";
+            this.needsScores = needsScores;
+            this.filterWeight = filterWeight;
             this.bm25fParams = bm25fParams;
-            this.defaultField = bm25fParams.getMainField();
+            this.defaultField = bm25fParams.mainField();
             this.termStates = termStates;
 
-            this.similarity = searcher.getSimilarity(true); // FIXME
-            if (this.similarity instanceof BM25FSimilarity) {
-
-                ((BM25FSimilarity) this.similarity).setBM25FParams(bm25fParams);
-            }
+            this.similarity = searcher.getSimilarity(true);
 
-            this.k1 = bm25fParams.getK1();
-            this.fields = bm25fParams.getFields();
+            this.k1 = bm25fParams.k1();
 
             final String termField = term.field();
-            if (termField.equals(defaultField)) {
+            // without main field, a term on another field than the BM25F
+            // fields is searched in all the fields
+            if (termField.equals(defaultField)
+                    || (defaultField == null && bm25fParams.ordinal(termField) < 0)) {
+                this.fields = bm25fParams.fieldArray();
+                this.fieldTermStates = fieldTermStates;
                 this.stats = new Similarity.SimWeight[fields.length];
-                for (int i = 0; i < fields.length; i++) {
-                    final Term fieldTerm = new Term(fields[i], term.text());
-                    // getFieldWeights is not used
-                    this.stats[i] = similarity.computeWeight(
-                            searcher.collectionStatistics(fieldTerm.field()),
+                for (int i = 0; i < fields.length && needsScores; i++) {
+                    final Term fieldTerm = new Term(fields[i], term.bytes());
+                    this.stats[i] = computeWeight(i, searcher.collectionStatistics(fieldTerm.field()),
                             searcher.termStatistics(fieldTerm, fieldTermStates[i]));
                 }
+                this.impactField = BM25FImpactField.impactField(bm25fParams);
             } else {
-                int fieldPos = 0;
-                for (int i = 0; i < fields.length; i++) {
-                    if (fields[i].equals(termField)) {
-                        fieldPos = i;
-                        break;
+                final int fieldPos = Math.max(0, bm25fParams.ordinal(termField));
+                // the term only matches its own field
+                this.fields = new String[] { bm25fParams.field(fieldPos) };
+                this.fieldTermStates = new TermContext[] { fieldTermStates[fieldPos] };
+
+                final Term fieldTerm = new Term(fields[0], term.bytes());
+                this.stats = new Similarity.SimWeight[1];
+                if (needsScores) {
+                    this.stats[0] = computeWeight(fieldPos, searcher.collectionStatistics(fieldTerm.field()),
+                            searcher.termStatistics(fieldTerm, this.fieldTermStates[0]));
+                }
+                this.impactField = null;
+            }
+
+            if (needsScores) {
+                final long numDocs = searcher.getIndexReader().numDocs();
+                final long df = docFreq(searcher, numDocs);
+                idf = idf(df, numDocs);
+                maxScore = maxScore();
+            } else {
+                idf = 0;
+                maxScore = 0;
+            }
+
+        }
+
+        /**
+         * Returns the doc freq of the term used for the idf, according to the
+         * {@link BM25FParameters.DocFreqMode} of the parameters.
+         *
+         * @param numDocs the number of documents the idf is computed against
+         */
+        private long docFreq(IndexSearcher searcher, long numDocs) throws IOException {
+            switch (bm25fParams.docFreqMode()) {
+                case MAIN_FIELD:
+                    return searcher.termStatistics(term, termStates).docFreq();
+                case MAX_FIELD:
+                    long max = 0;
+                    for (TermContext fieldTermState : fieldTermStates) {
+                        max = Math.max(max, fieldTermState.docFreq());
                     }
+                    return max;
+                case ESTIMATED_UNION:
+                    return estimatedUnionDocFreq(numDocs);
+                case EXACT_UNION:
+                    return exactUnionDocFreq(searcher.getTopReaderContext());
+                default:
+                    throw new AssertionError();
+            }
+        }
+
+        /**
+         * Estimates the number of documents containing the term in any of the
+         * fields, as if the fields were independent: a document does not
+         * contain the term with probability <code>prod_f (1 - df_f / N)</code>.
+         * N is the number of documents of the idf, so that the estimate never
+         * exceeds it, even if the doc freqs count deleted documents.
+         */
+        private long estimatedUnionDocFreq(long numDocs) {
+            if (numDocs == 0) {
+                return 0;
+            }
+            double none = 1;
+            long max = 0;
+            long sum = 0;
+            for (TermContext fieldTermState : fieldTermStates) {
+                final long df = Math.min(fieldTermState.docFreq(), numDocs);
+                none *= 1 - (double) df / numDocs;
+                max = Math.max(max, df);
+                sum += df;
+            }
+            final long estimate = Math.round(numDocs * (1 - none));
+            return Math.max(max, Math.min(sum, estimate));
+        }
+
+        /**
+         * Counts the documents containing the term in any of the fields, the
+         * counts of the segments are cached by {@link BM25FUnionDocFreqCache}.
+         */
+        private long exactUnionDocFreq(IndexReaderContext topContext) throws IOException {
+            long docFreq = 0;
+            final TermState[] states = new TermState[fields.length];
+            for (LeafReaderContext context : topContext.leaves()) {
+                for (int i = 0; i < fields.length; i++) {
+                    states[i] = fieldTermStates[i].get(context.ord);
                 }
+                docFreq += BM25FUnionDocFreqCache.forReader(context.reader())
+                        .docFreq(context.reader(), fields, states, term.bytes());
+            }
+            return docFreq;
+        }
 
-                final Term fieldTerm = new Term(fields[fieldPos], term.text());
-                // getFieldWeights is not used
-                this.stats = new Similarity.SimWeight[1];
-                this.stats[0] = similarity.computeWeight(
-                        searcher.collectionStatistics(fieldTerm.field()),
-                        searcher.termStatistics(fieldTerm, fieldTermStates[fieldPos]));
+        /**
+         * Computes the weight of a field with the parameters of the query: the
+         * similarity of the searcher is shared by all the queries, and is never
+         * modified. The ordinal of the field is known, so that the similarity
+         * does not look it up again.
+         */
+        private Similarity.SimWeight computeWeight(int ord, CollectionStatistics collectionStats,
+                                                   TermStatistics termStats) {
+            if (similarity instanceof BM25FSimilarity) {
+                return ((BM25FSimilarity) similarity).computeWeight(bm25fParams, ord, collectionStats, termStats);
+            }
+            return similarity.computeWeight(collectionStats, termStats);
+        }
+
+        /**
+         * Returns an upper bound of the score of a document for this term: the
+         * field scores are bounded using the total frequency of the term in each
+         * field and the smallest length normalization, the saturated score is
+         * in any case lower than the idf.
+         */
+        private float maxScore() {
+            double acc = 0;
+            for (int i = 0; i < stats.length; i++) {
+                acc += fieldMaxScore(i);
+            }
+            return maxScore(acc);
+        }
 
+        /**
+         * Returns an upper bound of the weighted and normalized frequency of the
+         * term in the i-th field of any document.
+         */
+        double fieldMaxScore(int i) {
+            final long totalTermFreq = fieldTermStates[i].totalTermFreq();
+            if (totalTermFreq == 0 || fieldTermStates[i].docFreq() == 0) {
+                return 0;
             }
+            return fieldMaxScore(i, totalTermFreq);
+        }
 
-            // System.out.println("term field is " + term.field());
-            final Term fieldTerm = new Term(term.field(), term.text());
-            final TermStatistics termStat = searcher.termStatistics(fieldTerm,
-                    termStates);
-            final long df = termStat.docFreq();
-            final long numDocs = searcher.getIndexReader().numDocs();
-            idf = idf(df, numDocs);
+        /**
+         * Returns an upper bound of the weighted and normalized frequency of the
+         * term in the i-th field of a document where the term occurs at most
+         * <code>maxFreq</code> times, +Infinity if unknown.
+         */
+        double fieldMaxScore(int i, long maxFreq) {
+            if (maxFreq < 0 || !(stats[i] instanceof BM25FSimilarity.BM25FSimWeight)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return ((BM25FSimilarity.BM25FSimWeight) stats[i]).maxScore(maxFreq);
+        }
 
+        /**
+         * Returns an upper bound of the score of a document whose accumulated
+         * field scores are at most <code>acc</code>.
+         */
+        float maxScore(double acc) {
+            if (k1 < 0) {
+                return Float.POSITIVE_INFINITY;
+            }
+            double bound = idf;
+            if (acc == 0) {
+                bound = 0;
+            } else if (!Double.isInfinite(acc) && !Double.isNaN(acc)) {
+                bound = Math.min(bound, idf * acc / (acc + k1));
+            }
+            // leave room for float rounding errors while scoring
+            return (float) (bound * (1 + 1e-5));
         }
 
         @Override
@@ -136,63 +295,355 @@ public class BM25FBooleanTermQuery extends Query {
             // stats.normalize(queryNorm, topLevelBoost);
         }
 
+        /**
+         * Returns the number of documents containing the term in the i-th field
+         * of the given segment, as recorded in the term state. Codecs that do
+         * not use block term states are asked for the doc freq, since the cost
+         * of their postings may be a loose estimate.
+         *
+         * @param termsEnum the terms of the field positioned on the term, null
+         *          to seek them by the state only if needed
+         */
+        private long fieldCost(LeafReaderContext context, int i, TermState state, TermsEnum termsEnum)
+                throws IOException {
+            if (state instanceof BlockTermState) {
+                return ((BlockTermState) state).docFreq;
+            }
+            if (termsEnum == null) {
+                termsEnum = context.reader().terms(fields[i]).iterator();
+                termsEnum.seekExact(term.bytes(), state);
+            }
+            return termsEnum.docFreq();
+        }
+
+        /**
+         * Reads the postings of the {@link BM25FImpactField} of the segment if
+         * it was indexed for the parameters of the query, of the
+         * {@link BM25FFusedField} of the segment if it fuses all the fields of
+         * the query, or merges the postings of every field. The merged
+         * postings skip the deleted documents, and the documents rejected by
+         * the filter of the query.
+         */
         @Override
-        public BM25FTermScorer scorer(LeafReaderContext context) throws IOException {
-            assert termStates.topReaderContext == ReaderUtil
-                    .getTopLevelContext(context) : "The top-reader used to create Weight ("
-                    + termStates.topReaderContext
-                    + ") is not the same as the current reader's top-reader ("
-                    + ReaderUtil.getTopLevelContext(context);
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            return scorer(context, filterIterator(context));
+        }
 
-            final SimScorer[] scorers = new SimScorer[stats.length];
-            final PostingsEnum[] docsEnums = new PostingsEnum[stats.length];
-            // TermsEnum termDocs = null;
-            PostingsEnum docsEnum = null;
-            if (stats.length == 1) {
-                // termDocs = getTermsEnum(context, fields[i],i);
-                docsEnum = context.reader().postings(new Term(fields[0], term.text()));
-                if (docsEnum != null) {
-                    scorers[0] = similarity.simScorer(stats[0], context);
-                    docsEnums[0] = docsEnum;
+        /**
+         * Returns a scorer that merges the postings of the fields and only
+         * matches the live documents of the given filter, null if no document
+         * can match.
+         *
+         * @param filter the documents that can match, null if there is no
+         *          filter
+         */
+        Scorer scorer(LeafReaderContext context, DocIdSet filter) throws IOException {
+            if (filter == null) {
+                return scorer(context, (DocIdSetIterator) null);
+            }
+            final DocIdSetIterator iterator = filter.iterator();
+            return scorer(context, iterator == null ? DocIdSetIterator.empty() : iterator);
+        }
+
+        private Scorer scorer(LeafReaderContext context, DocIdSetIterator filter) throws IOException {
+            if (!needsScores) {
+                return matchingScorer(context, filter);
+            }
+            if (filter == null) {
+                if (hasImpacts(context)) {
+                    return impactScorer(context);
+                }
+                final BM25FFusedField.Fused fused = BM25FFusedField.fusedField(context.reader(), fields);
+                if (fused != null) {
+                    return fusedScorer(context, fused);
+                }
+            }
+            return termScorer(context, context.reader().getLiveDocs(), filter);
+        }
+
+        /**
+         * Returns the documents matching the filter of the query in the given
+         * segment, null if the query has no filter.
+         */
+        private DocIdSetIterator filterIterator(LeafReaderContext context) throws IOException {
+            if (filterWeight == null) {
+                return null;
+            }
+            final Scorer filterScorer = filterWeight.scorer(context);
+            return filterScorer == null ? DocIdSetIterator.empty() : filterScorer.iterator();
+        }
+
+        /**
+         * Returns a scorer that only matches the documents: a single postings
+         * list is read if the segment has an impact field, or a fused field
+         * that only fuses the fields of the query, otherwise the postings of
+         * the fields are merged without reading freqs nor norms.
+         */
+        private Scorer matchingScorer(LeafReaderContext context, DocIdSetIterator filter)
+                throws IOException {
+            if (filter == null) {
+                final PostingsEnum single = singlePostings(context);
+                if (single != null) {
+                    return new ConstantScoreScorer(this, 1f, single);
                 }
+            }
+            final BM25FPostings[] postings = postings(context, 0);
+            if (postings == null) {
+                return null;
+            }
+            final BM25FTermScorer union = new BM25FTermScorer(this, postings,
+                    context.reader().getLiveDocs(), filter);
+            return new ConstantScoreScorer(this, 1f, union.iterator());
+        }
+
+        /**
+         * Returns the postings of the term in the impact field or in a fused
+         * field that matches exactly the documents of the query, null if the
+         * segment has no such field or if it does not contain the term.
+         */
+        private PostingsEnum singlePostings(LeafReaderContext context) throws IOException {
+            final TermsEnum termsEnum = singleTermsEnum(context);
+            return termsEnum == null ? null : termsEnum.postings(null, PostingsEnum.NONE);
+        }
+
+        private TermsEnum singleTermsEnum(LeafReaderContext context) throws IOException {
+            String field = null;
+            if (hasImpacts(context)) {
+                field = impactField;
             } else {
-                for (int i = 0; i < stats.length; i++) {
-                    // termDocs = getTermsEnum(context, fields[i],i);
-                    docsEnum = context.reader().postings(new Term(fields[i], term.text()));
+                final BM25FFusedField.Fused fused = BM25FFusedField.fusedField(context.reader(), fields);
+                if (fused != null && fused.slots.length == fields.length) {
+                    field = fused.name;
+                }
+            }
+            if (field == null) {
+                return null;
+            }
+            final Terms terms = context.reader().terms(field);
+            if (terms == null) {
+                return null;
+            }
+            final TermsEnum termsEnum = terms.iterator();
+            return termsEnum.seekExact(term.bytes()) ? termsEnum : null;
+        }
 
-                    if (docsEnum != null) {
-                        scorers[i] = similarity.simScorer(stats[i], context);
-                        docsEnums[i] = docsEnum;
+        /**
+         * Returns the number of documents matching the term in the given
+         * segment. Without deletions and filter, the count is the doc freq of
+         * the term in the impact or fused field of the segment, or in the only
+         * field of the segment containing the term; otherwise the matching
+         * documents are iterated.
+         */
+        int count(LeafReaderContext context) throws IOException {
+            final LeafReader reader = context.reader();
+            if (!reader.hasDeletions() && filterWeight == null) {
+                final TermsEnum single = singleTermsEnum(context);
+                if (single != null) {
+                    return single.docFreq();
+                }
+                int found = -1;
+                for (int i = 0; i < fields.length; i++) {
+                    if (fieldTermStates[i].get(context.ord) != null) {
+                        found = found == -1 ? i : -2;
                     }
-                    // System.out.println("DOC ENUM "+i);
-                    // while (docsEnum[i].nextDoc() != Scorer.NO_MORE_DOCS){
-                    // System.out.println(" -> "+docsEnum[i].docID()+"("+docsEnum[i].freq()+")");
-                    // }
-
-                    // assert docsEnum[i] != null;
+                }
+                if (found == -1) {
+                    return 0;
+                }
+                if (found >= 0) {
+                    return (int) fieldCost(context, found, fieldTermStates[found].get(context.ord), null);
+                }
+            }
+            final Scorer scorer = matchingScorer(context, filterIterator(context));
+            if (scorer == null) {
+                return 0;
+            }
+            final Bits liveDocs = reader.getLiveDocs();
+            final DocIdSetIterator it = scorer.iterator();
+            int count = 0;
+            for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    count++;
+                }
+            }
+            return count;
+        }
 
+        /**
+         * Returns the number of postings of the term in the fields of the
+         * given segment, an estimate of the cost of scoring the segment read
+         * from the term states, without pulling the postings.
+         */
+        long cost(LeafReaderContext context) throws IOException {
+            long cost = 0;
+            for (int i = 0; i < fields.length; i++) {
+                final TermState state = fieldTermStates[i].get(context.ord);
+                if (state != null) {
+                    cost += fieldCost(context, i, state, null);
                 }
             }
-            // FIXME acceptDocs is null
-            return new BM25FTermScorer(this, scorers, docsEnums, null);
+            return cost;
+        }
+
+        private boolean hasImpacts(LeafReaderContext context) {
+            return impactField != null && BM25FImpactField.hasField(context.reader(), impactField);
+        }
 
+        private BM25FImpactTermScorer impactScorer(LeafReaderContext context) throws IOException {
+            final Terms terms = context.reader().terms(impactField);
+            if (terms == null) {
+                return null;
+            }
+            final TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term.bytes())) {
+                return null;
+            }
+            final PostingsEnum postings = termsEnum.postings(null, PostingsEnum.PAYLOADS);
+            return new BM25FImpactTermScorer(this, postings, idf, k1);
+        }
+
+        private BM25FTermScorer termScorer(LeafReaderContext context, Bits acceptDocs,
+                                           DocIdSetIterator filter) throws IOException {
+            final BM25FPostings[] postings = postings(context, 0);
+            if (postings == null) {
+                return null;
+            }
+            return new BM25FTermScorer(this, postings, acceptDocs, filter);
         }
 
-        private PostingsEnum getDocsEnum(LeafReaderContext context, String field)
+        private BM25FFusedTermScorer fusedScorer(LeafReaderContext context, BM25FFusedField.Fused fused)
                 throws IOException {
+            boolean found = false;
+            for (TermContext fieldTermState : fieldTermStates) {
+                found |= fieldTermState.get(context.ord) != null;
+            }
+            if (!found) {
+                return null;
+            }
+            final Terms terms = context.reader().terms(fused.name);
+            final TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term.bytes())) {
+                return null;
+            }
+            final PostingsEnum postings = termsEnum.postings(null, PostingsEnum.PAYLOADS);
+            final SimScorer[] scorers = new SimScorer[stats.length];
+            final NumericDocValues[] packedNorms = packedNorms(context);
+            for (int i = 0; i < stats.length; i++) {
+                scorers[i] = simScorer(i, context, packedNorms);
+            }
+            return new BM25FFusedTermScorer(this, postings, scorers,
+                    fused.slots, idf, k1, termsEnum.docFreq());
+        }
 
-            return context.reader().postings(new Term(field, term.text()));
+        /**
+         * Scores the documents in windows with a {@link BM25FTermBulkScorer},
+         * or iterates the postings of the impact or fused field of the segment.
+         */
+        @Override
+        public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+            if (!needsScores || filterWeight != null || hasImpacts(context)
+                    || BM25FFusedField.fusedField(context.reader(), fields) != null) {
+                return super.bulkScorer(context);
+            }
+            final BM25FPostings[] postings = postings(context, 0);
+            if (postings == null) {
+                return null;
+            }
+            return new BM25FTermBulkScorer(postings, idf, k1);
+        }
+
+        /**
+         * Returns the postings of the term in each field of the given segment,
+         * null for the fields that do not contain the term, or null if no field
+         * contains the term.
+         *
+         * @param termOrd the ordinal of the term in the query, see
+         *                {@link BM25FPostings#term}
+         */
+        BM25FPostings[] postings(LeafReaderContext context, int termOrd) throws IOException {
+            assert termStates.topReaderContext == ReaderUtil
+                    .getTopLevelContext(context) : "The top-reader used to create Weight ("
+                    + termStates.topReaderContext
+                    + ") is not the same as the current reader's top-reader ("
+                    + ReaderUtil.getTopLevelContext(context);
+
+            final BM25FPostings[] postings = new BM25FPostings[stats.length];
+            final BytesRef termBytes = term.bytes();
+            final NumericDocValues[] packedNorms = needsScores ? packedNorms(context) : null;
+            boolean found = false;
+            for (int i = 0; i < stats.length; i++) {
+                // seek by the term state resolved when the weight was created,
+                // no state means that the segment does not contain the term
+                final TermState state = fieldTermStates[i].get(context.ord);
+                if (state == null) {
+                    continue;
+                }
+                final Terms terms = context.reader().terms(fields[i]);
+                final TermsEnum termsEnum = terms.iterator();
+                termsEnum.seekExact(termBytes, state);
+                if (!needsScores) {
+                    final PostingsEnum docsEnum = termsEnum.postings(null, PostingsEnum.NONE);
+                    postings[i] = new BM25FPostings(docsEnum, null, i, termOrd,
+                            fieldCost(context, i, state, termsEnum), null);
+                    found = true;
+                    continue;
+                }
+                final PostingsEnum docsEnum = termsEnum.postings(null, PostingsEnum.FREQS);
+                postings[i] = new BM25FPostings(docsEnum, simScorer(i, context, packedNorms),
+                        i, termOrd, fieldCost(context, i, state, termsEnum), blockMaxes(terms, termBytes));
+                found = true;
+            }
+            return found ? postings : null;
+        }
 
+        /**
+         * Returns the norms of the fields read from the packed lengths of the
+         * segment, see {@link BM25FPackedNorms}, null if the lengths are not
+         * packed or if the similarity does not use encoded lengths.
+         */
+        private NumericDocValues[] packedNorms(LeafReaderContext context) throws IOException {
+            if (!(similarity instanceof BM25FSimilarity)
+                    || ((BM25FSimilarity) similarity).getExactFieldLengths()) {
+                return null;
+            }
+            return BM25FPackedNorms.normValues(context.reader(), fields);
+        }
+
+        private SimScorer simScorer(int i, LeafReaderContext context, NumericDocValues[] packedNorms)
+                throws IOException {
+            if (packedNorms != null && packedNorms[i] != null) {
+                return ((BM25FSimilarity) similarity).simScorer(stats[i], packedNorms[i]);
+            }
+            return similarity.simScorer(stats[i], context);
+        }
+
+        /**
+         * Returns the block maxima of the term in the given segment, null if
+         * the field was not indexed with
+         * {@link org.apache.lucene.codecs.bm25f.BM25FBlockMaxPostingsFormat}.
+         */
+        private BM25FBlockMaxes blockMaxes(Terms terms, BytesRef term) {
+            if (terms instanceof BM25FBlockMaxTerms) {
+                return ((BM25FBlockMaxTerms) terms).blockMaxes(term);
+            }
+            return null;
         }
 
         @Override
         public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            if (filterWeight == null && hasImpacts(context)) {
+                return explainImpact(context, doc);
+            }
             final SimScorer[] scorers = new SimScorer[stats.length];
+            final NumericDocValues[] packedNorms = packedNorms(context);
             for (int i = 0; i < stats.length; i++) {
-                scorers[i] = similarity.simScorer(stats[i], context);
+                scorers[i] = simScorer(i, context, packedNorms);
+            }
+            // deleted documents are explained too
+            BM25FTermScorer scorer = termScorer(context, null, filterIterator(context));
+            if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                return Explanation.noMatch("no matching term");
             }
-            BM25FTermScorer scorer = scorer(context);
-            scorer.iterator().advance(doc);
             float acum = 0;
             final List<Explanation> sub = new ArrayList<>();
             for (int i = 0; i < stats.length; i++) {
@@ -218,6 +669,20 @@ public class BM25FBooleanTermQuery extends Query {
 
         }
 
+        private Explanation explainImpact(LeafReaderContext context, int doc) throws IOException {
+            final BM25FImpactTermScorer scorer = impactScorer(context);
+            if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                return Explanation.noMatch("no matching term");
+            }
+            final float acum = scorer.impact();
+            Explanation impactExplanation = Explanation.match(acum, "field scores, indexed in " + impactField);
+            Explanation idfExplanation = Explanation.match(idf, "idf");
+            Explanation k1Explanation = Explanation.match(k1, "k1");
+            Explanation sum = Explanation.match(k1 + acum, "Sum of ", k1Explanation, impactExplanation);
+            Explanation div = Explanation.match(acum / (k1 + acum), "Division Of", impactExplanation, sum);
+            return Explanation.match(scorer.score(), "[docid:"+doc+"] Product Of", idfExplanation, div);
+        }
+
         @Override
         public void extractTerms(Set<Term> arg0) {
             // TODO Auto-generated method stub
@@ -238,10 +703,7 @@ public class BM25FBooleanTermQuery extends Query {
      * of looking up the docFreq against the searcher.
      */
     public BM25FBooleanTermQuery(Term t, int docFreq, BM25FParameters bm25fParams) {
-        term = t;
-        this.docFreq = docFreq;
-        perReaderTermState = null;
-        this.bm25fParams = bm25fParams;
+        this(t, docFreq, null, bm25fParams, null);
     }
 
     /**
@@ -250,11 +712,28 @@ public class BM25FBooleanTermQuery extends Query {
      */
     public BM25FBooleanTermQuery(Term t, TermContext states,
                                  BM25FParameters bm25fParams) {
-        assert states != null;
+        this(t, states.docFreq(), states, bm25fParams, null);
+    }
+
+    /**
+     * Constructs a query for the term <code>t</code> matching only the
+     * documents matched by <code>filter</code>, that does not contribute to
+     * the score. The postings of the fields are leapfrogged with the filter,
+     * so that the documents rejected by the filter are never scored.
+     *
+     * @param filter the filter, null for no filter
+     */
+    public BM25FBooleanTermQuery(Term t, BM25FParameters bm25fParams, Query filter) {
+        this(t, -1, null, bm25fParams, filter);
+    }
+
+    private BM25FBooleanTermQuery(Term t, int docFreq, TermContext states,
+                                  BM25FParameters bm25fParams, Query filter) {
         term = t;
-        docFreq = states.docFreq();
+        this.docFreq = docFreq;
         perReaderTermState = states;
         this.bm25fParams = bm25fParams;
+        this.filter = filter;
     }
 
     /**
@@ -264,25 +743,44 @@ public class BM25FBooleanTermQuery extends Query {
         return term;
     }
 
+    /**
+     * Returns a copy of this query restricted to the documents matched by
+     * <code>filter</code>, see
+     * {@link #BM25FBooleanTermQuery(Term, BM25FParameters, Query)}. This
+     * query is not modified.
+     *
+     * @param filter the filter, null for a copy without filter
+     */
+    public BM25FBooleanTermQuery withFilter(Query filter) {
+        return new BM25FBooleanTermQuery(term, docFreq, perReaderTermState, bm25fParams, filter);
+    }
+
+    /**
+     * @return the parameters used for scoring
+     */
+    public BM25FParameters getBM25FParameters() {
+        return bm25fParams;
+    }
+
+    /**
+     * @return the filter of this query, null if there is none
+     */
+    public Query getFilter() {
+        return filter;
+    }
+
     @Override
     public Weight createWeight(IndexSearcher searcher, boolean needsScores)
             throws IOException {
-        // if (term.field().equals(bm25fParams.getMainField())) {
-        fields = bm25fParams.getFields();
-// }
-
-// else {
-// fields = new String[] { term.field() };
-// }
+        final BM25FCompiledParameters params = bm25fParams.compile();
+        final String[] fields = params.fieldArray();
 
         final IndexReaderContext context = searcher.getTopReaderContext();
+        // term lookups are cached per segment
         final TermContext termState;
         if ((perReaderTermState == null)
                 || (perReaderTermState.topReaderContext != context)) {
-            // make TermQuery single-pass if we don't have a PRTS or if the
-            // context differs!
-            termState = TermContext.build(context, term); // cache term
-            // lookups!
+            termState = BM25FTermContextCache.termContext(context, term);
         } else {
             // PRTS was pre-build for this IS
             termState = this.perReaderTermState;
@@ -290,9 +788,7 @@ public class BM25FBooleanTermQuery extends Query {
         final TermContext[] fieldTermContext = new TermContext[fields.length];
 
         for (int i = 0; i < fields.length; i++) {
-            final Term t = new Term(fields[i], term.text());
-
-            fieldTermContext[i] = TermContext.build(context, t);
+            fieldTermContext[i] = BM25FTermContextCache.termContext(context, new Term(fields[i], term.bytes()));
         }
         // FIXME we must not ignore the given docFreq - if set use the given value
         // (lie)
@@ -300,7 +796,24 @@ public class BM25FBooleanTermQuery extends Query {
         // termState.(docFreq);
         // }
 
-        return new BM25FTermWeight(searcher, termState, fieldTermContext, bm25fParams);
+        final Weight filterWeight = filter == null ? null : searcher.createNormalizedWeight(filter, false);
+        return new BM25FTermWeight(searcher, termState, fieldTermContext, params, needsScores,
+                filterWeight);
+    }
+
+    /**
+     * Counts the documents matching this query, without scoring them: see
+     * {@link BM25FTermWeight#count(LeafReaderContext)}. The counts of the
+     * segments without deletions are usually read from the terms
+     * dictionaries.
+     */
+    public int count(IndexSearcher searcher) throws IOException {
+        final BM25FTermWeight weight = (BM25FTermWeight) createWeight(searcher, false);
+        int count = 0;
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            count += weight.count(context);
+        }
+        return count;
     }
 
     /**
@@ -314,6 +827,10 @@ public class BM25FBooleanTermQuery extends Query {
             buffer.append(":");
         }
         buffer.append(term.text());
+        if (filter != null) {
+            buffer.append(" #");
+            buffer.append(filter.toString(field));
+        }
         // FIXME buffer.append(ToStringUtils.boost(getBoost()));
         return buffer.toString();
     }
@@ -327,10 +844,11 @@ public class BM25FBooleanTermQuery extends Query {
             return false;
         }
         final BM25FBooleanTermQuery other = (BM25FBooleanTermQuery) o;
-        // FIXME
-        // return (this.getBoost() == other.getBoost())
-        // && this.term.equals(other.term);
-        return this.term.equals(other.term);
+        // the parameters decide the fields that are searched, queries with
+        // different parameters must not share cached weights
+        return this.term.equals(other.term)
+                && bm25fParams.equals(other.bm25fParams)
+                && (filter == null ? other.filter == null : filter.equals(other.filter));
     }
 
     /**
@@ -338,9 +856,10 @@ public class BM25FBooleanTermQuery extends Query {
      */
     @Override
     public int hashCode() {
-        // FIXME
-        //return Float.floatToIntBits(getBoost()) ^ term.hashCode();
-        return term.hashCode();
+        int result = term.hashCode();
+        result = 31 * result + bm25fParams.hashCode();
+        result = 31 * result + (filter == null ? 0 : filter.hashCode());
+        return result;
     }
 
     @Override
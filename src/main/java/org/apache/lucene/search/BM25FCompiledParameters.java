@@ -0,0 +1,161 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of {@link BM25FParameters}: the BM25F fields in ordinal
+ * order, with their weights and length boosts stored in primitive arrays.
+ * Instances are obtained through {@link BM25FParameters#compile()} and can be
+ * shared between threads.
+ */
+public final class BM25FCompiledParameters {
+
+  private final String mainField;
+  private final String[] fields;
+  private final float[] weights;
+  private final float[] lengthBoosts;
+  private final float k1;
+  private final BM25FParameters.DocFreqMode docFreqMode;
+
+  BM25FCompiledParameters(String mainField, String[] fields, float[] weights,
+      float[] lengthBoosts, float k1, BM25FParameters.DocFreqMode docFreqMode) {
+    assert fields.length == weights.length && fields.length == lengthBoosts.length;
+    this.mainField = mainField;
+    this.fields = fields;
+    this.weights = weights;
+    this.lengthBoosts = lengthBoosts;
+    this.k1 = k1;
+    this.docFreqMode = docFreqMode;
+  }
+
+  /**
+   * @return the number of BM25F fields
+   */
+  public int size() {
+    return fields.length;
+  }
+
+  /**
+   * Returns the ordinal of the given field, or -1 if it is not a BM25F field.
+   * The fields are few, so they are scanned rather than looked up in a map of
+   * boxed ordinals.
+   */
+  public int ordinal(String field) {
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].equals(field)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the name of the field with the given ordinal
+   */
+  public String field(int ord) {
+    return fields[ord];
+  }
+
+  /**
+   * @return the weight of the field with the given ordinal
+   */
+  public float weight(int ord) {
+    return weights[ord];
+  }
+
+  /**
+   * @return the length boost (b) of the field with the given ordinal
+   */
+  public float lengthBoost(int ord) {
+    return lengthBoosts[ord];
+  }
+
+  /**
+   * @return a copy of the BM25F fields, in ordinal order
+   */
+  public String[] fields() {
+    return fields.clone();
+  }
+
+  /**
+   * @return the BM25F fields, in ordinal order, without copy: the array is
+   *         shared and must not be modified
+   */
+  String[] fieldArray() {
+    return fields;
+  }
+
+  /**
+   * @return the saturation parameter
+   */
+  public float k1() {
+    return k1;
+  }
+
+  /**
+   * @return the field used for computing the idf, null if none
+   */
+  public String mainField() {
+    return mainField;
+  }
+
+  /**
+   * @return how the doc freqs of the terms are computed, never
+   *         {@link BM25FParameters.DocFreqMode#MAIN_FIELD} if there is no
+   *         main field
+   */
+  public BM25FParameters.DocFreqMode docFreqMode() {
+    if (docFreqMode == BM25FParameters.DocFreqMode.MAIN_FIELD && mainField == null) {
+      return BM25FParameters.DocFreqMode.MAX_FIELD;
+    }
+    return docFreqMode;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Arrays.hashCode(fields);
+    result = 31 * result + Arrays.hashCode(weights);
+    result = 31 * result + Arrays.hashCode(lengthBoosts);
+    result = 31 * result + Float.floatToIntBits(k1);
+    result = 31 * result + ((mainField == null) ? 0 : mainField.hashCode());
+    result = 31 * result + docFreqMode.ordinal();
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof BM25FCompiledParameters)) {
+      return false;
+    }
+    final BM25FCompiledParameters other = (BM25FCompiledParameters) obj;
+    return Arrays.equals(fields, other.fields)
+        && Arrays.equals(weights, other.weights)
+        && Arrays.equals(lengthBoosts, other.lengthBoosts)
+        && Float.floatToIntBits(k1) == Float.floatToIntBits(other.k1)
+        && ((mainField == null) ? other.mainField == null : mainField.equals(other.mainField))
+        && docFreqMode == other.docFreqMode;
+  }
+
+  @Override
+  public String toString() {
+    return "BM25FCompiledParameters [fields=" + Arrays.toString(fields)
+        + ", weights=" + Arrays.toString(weights) + ", lengthBoosts="
+        + Arrays.toString(lengthBoosts) + ", k1=" + k1 + ", docFreqMode=" + docFreqMode + "]";
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Scores a conjunction of BM25F terms: every term iterates the union of its
+ * fields with a {@link BM25FTermScorer}, and the unions are intersected
+ * leapfrogging from the rarest term, whose cost is the sum of the doc freqs
+ * of the term in the fields. The other terms are only advanced to the
+ * candidates of the lead, and the documents are scored only once all the
+ * terms matched.
+ *
+ * The terms are saturated one by one and summed in the order of the
+ * clauses, so the scores are the same as the ones of
+ * {@link BM25FBooleanScorer}. The optional terms of a query with a minimum
+ * number of optional terms that must match are intersected as a single
+ * {@link BM25FMinShouldMatchScorer}, scored after the required terms.
+ */
+final class BM25FConjunctionScorer extends Scorer {
+
+  // in the order of the clauses
+  private final Scorer[] scorers;
+  // the rarest term
+  private final DocIdSetIterator lead;
+  // the other terms, by increasing cost
+  private final DocIdSetIterator[] others;
+  private final DocIdSetIterator[] prohibited;
+  private final long cost;
+  private final DocIdSetIterator iterator;
+  private int docID = -1;
+
+  BM25FConjunctionScorer(Weight weight, List<? extends Scorer> scorers,
+      List<DocIdSetIterator> prohibited) {
+    super(weight);
+    assert scorers.size() > 0;
+    this.scorers = scorers.toArray(new Scorer[scorers.size()]);
+    final DocIdSetIterator[] iterators = new DocIdSetIterator[this.scorers.length];
+    for (int i = 0; i < iterators.length; i++) {
+      iterators[i] = this.scorers[i].iterator();
+    }
+    Arrays.sort(iterators, new Comparator<DocIdSetIterator>() {
+      @Override
+      public int compare(DocIdSetIterator a, DocIdSetIterator b) {
+        return Long.compare(a.cost(), b.cost());
+      }
+    });
+    lead = iterators[0];
+    others = Arrays.copyOfRange(iterators, 1, iterators.length);
+    this.prohibited = prohibited.toArray(new DocIdSetIterator[prohibited.size()]);
+    cost = lead.cost();
+    iterator = new ConjunctionIterator();
+  }
+
+  @Override
+  public float score() throws IOException {
+    float score = 0;
+    for (Scorer scorer : scorers) {
+      score += scorer.score();
+    }
+    return score;
+  }
+
+  @Override
+  public int freq() throws IOException {
+    int freq = 0;
+    for (Scorer scorer : scorers) {
+      freq += scorer.freq();
+    }
+    return freq;
+  }
+
+  @Override
+  public int docID() {
+    return docID;
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return iterator;
+  }
+
+  private boolean prohibited(int doc) throws IOException {
+    for (DocIdSetIterator p : prohibited) {
+      int pDoc = p.docID();
+      if (pDoc < doc) {
+        pDoc = p.advance(doc);
+      }
+      if (pDoc == doc) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  final class ConjunctionIterator extends DocIdSetIterator {
+
+    /**
+     * Advances the other terms to the candidate of the lead, and the lead to
+     * the first term that went beyond it.
+     */
+    private int doNext(int doc) throws IOException {
+      advanceHead:
+      while (doc != NO_MORE_DOCS) {
+        for (DocIdSetIterator other : others) {
+          int next = other.docID();
+          if (next < doc) {
+            next = other.advance(doc);
+          }
+          if (next > doc) {
+            doc = lead.advance(next);
+            continue advanceHead;
+          }
+        }
+        if (!prohibited(doc)) {
+          break;
+        }
+        doc = lead.nextDoc();
+      }
+      return docID = doc;
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+      return doNext(lead.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+      return doNext(lead.advance(target));
+    }
+
+    /**
+     * @return the cost of the rarest term
+     */
+    @Override
+    public long cost() {
+      return cost;
+    }
+
+    @Override
+    public int docID() {
+      return docID;
+    }
+
+  }
+
+}
@@ -0,0 +1,296 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.BytesTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A "virtual" BM25F field, fusing the postings of several BM25F fields: the
+ * field has one postings list per term, where every document has a single
+ * position whose payload holds the frequency of the term in each of the
+ * fused fields. A BM25F term is then scored with one terms dictionary seek
+ * and one postings traversal instead of a merge of the postings of every
+ * field.
+ *
+ * The fused field is added to the documents at index time, next to the
+ * regular fields, which are still needed by the norms and by the other
+ * queries:
+ *
+ * <pre>
+ * doc.add(BM25FFusedField.createField(params.getFields(), doc, analyzer));
+ * writer.addDocument(doc);
+ * </pre>
+ *
+ * BM25F term queries use it automatically in the segments where it exists
+ * and fuses all the fields of the query, so it must be added to all the
+ * documents. The payload of a document is a sequence of vint pairs: the
+ * position of a field in the fused field name, then the frequency of the
+ * term in the field, for the fields containing the term. The terms are
+ * indexed as the bytes produced by the analyzer, so binary terms are fused
+ * too. The fused field of a segment is resolved once per segment core and
+ * set of fields.
+ */
+public final class BM25FFusedField {
+
+  /**
+   * The prefix of the names of the fused fields, the name of a field is the
+   * prefix followed by the names of the fused fields, separated by commas.
+   */
+  public static final String FIELD_PREFIX = "_bm25f_fused:";
+
+  /** The type of the fused fields: one position with a payload per document. */
+  public static final FieldType TYPE = new FieldType();
+  static {
+    TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    TYPE.setTokenized(true);
+    TYPE.setOmitNorms(true);
+    TYPE.freeze();
+  }
+
+  private static final char SEPARATOR = ',';
+
+  // the fused field of every set of fields searched in a segment, per core
+  private static final ConcurrentMap<Object, ConcurrentMap<List<String>, Fused>> SEGMENTS =
+      new ConcurrentHashMap<>();
+
+  private static final LeafReader.CoreClosedListener REMOVE_ON_CLOSE = new LeafReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      SEGMENTS.remove(ownerCoreCacheKey);
+    }
+  };
+
+  // marks the sets of fields without fused field in a segment
+  private static final Fused NONE = new Fused(null, null);
+
+  private BM25FFusedField() {
+    // no instance
+  }
+
+  /**
+   * Returns the fused field of the given fields of <code>doc</code>, counting
+   * the terms produced by <code>analyzer</code> like the index writer does.
+   *
+   * @throws IllegalArgumentException if a field name contains a comma
+   */
+  public static Field createField(String[] fields, Document doc, Analyzer analyzer)
+      throws IOException {
+    final Map<BytesRef, int[]> freqs = termFreqs(fields, doc, analyzer, null);
+    return new Field(fieldName(fields), new FusedTokenStream(freqs, fields.length), TYPE);
+  }
+
+  /**
+   * Counts the terms produced by <code>analyzer</code> in the given fields
+   * of <code>doc</code>, like the index writer does.
+   *
+   * @param lengths if not null, receives the number of tokens of each field,
+   *          overlap tokens (with a 0 position increment) excluded
+   * @return the frequencies of each term in the fields, sorted by term
+   */
+  static Map<BytesRef, int[]> termFreqs(String[] fields, Document doc, Analyzer analyzer,
+      int[] lengths) throws IOException {
+    // sorted, so that the token stream is independent of the hash order
+    final Map<BytesRef, int[]> freqs = new TreeMap<>();
+    for (int i = 0; i < fields.length; i++) {
+      for (IndexableField field : doc.getFields(fields[i])) {
+        if (field.fieldType().indexOptions() == IndexOptions.NONE) {
+          continue;
+        }
+        try (TokenStream stream = field.tokenStream(analyzer, null)) {
+          final TermToBytesRefAttribute termAtt = stream.addAttribute(TermToBytesRefAttribute.class);
+          final PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+          stream.reset();
+          while (stream.incrementToken()) {
+            final BytesRef term = termAtt.getBytesRef();
+            int[] termFreqs = freqs.get(term);
+            if (termFreqs == null) {
+              termFreqs = new int[fields.length];
+              freqs.put(BytesRef.deepCopyOf(term), termFreqs);
+            }
+            termFreqs[i]++;
+            if (lengths != null && posIncAtt.getPositionIncrement() != 0) {
+              lengths[i]++;
+            }
+          }
+          stream.end();
+        }
+      }
+    }
+    return freqs;
+  }
+
+  /**
+   * Returns the name of the field fusing the given fields.
+   *
+   * @throws IllegalArgumentException if a field name contains a comma
+   */
+  public static String fieldName(String[] fields) {
+    final StringBuilder name = new StringBuilder(FIELD_PREFIX);
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].indexOf(SEPARATOR) >= 0) {
+        throw new IllegalArgumentException("field names must not contain '"
+            + SEPARATOR + "', got: " + fields[i]);
+      }
+      if (i > 0) {
+        name.append(SEPARATOR);
+      }
+      name.append(fields[i]);
+    }
+    return name.toString();
+  }
+
+  /**
+   * Returns a fused field of the segment fusing all the given fields, null if
+   * there is none. The field infos of a segment are only scanned the first
+   * time a set of fields is searched in the segment, the result is then
+   * reused by all the readers sharing the core of the segment.
+   */
+  static Fused fusedField(LeafReader reader, String[] fields) {
+    final Object key = reader.getCoreCacheKey();
+    ConcurrentMap<List<String>, Fused> segment = SEGMENTS.get(key);
+    if (segment == null) {
+      final ConcurrentMap<List<String>, Fused> newSegment = new ConcurrentHashMap<>();
+      segment = SEGMENTS.putIfAbsent(key, newSegment);
+      if (segment == null) {
+        segment = newSegment;
+        reader.addCoreClosedListener(REMOVE_ON_CLOSE);
+      }
+    }
+    Fused fused = segment.get(Arrays.asList(fields));
+    if (fused == null) {
+      fused = resolve(reader, fields);
+      segment.putIfAbsent(Arrays.asList(fields.clone()), fused);
+    }
+    return fused == NONE ? null : fused;
+  }
+
+  private static Fused resolve(LeafReader reader, String[] fields) {
+    for (FieldInfo info : reader.getFieldInfos()) {
+      if (info.name.startsWith(FIELD_PREFIX) && info.hasPayloads()) {
+        final int[] slots = slots(info.name, fields);
+        if (slots != null) {
+          return new Fused(info.name, slots);
+        }
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Maps the positions of the fields in the name of a fused field to the
+   * positions of the given fields, -1 for the fused fields not given.
+   *
+   * @return null if one of the given fields is not fused
+   */
+  static int[] slots(String fusedField, String[] fields) {
+    final String[] fused = fusedField.substring(FIELD_PREFIX.length()).split(String.valueOf(SEPARATOR));
+    final int[] slots = new int[fused.length];
+    int found = 0;
+    for (int slot = 0; slot < fused.length; slot++) {
+      slots[slot] = -1;
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i].equals(fused[slot])) {
+          slots[slot] = i;
+          found++;
+          break;
+        }
+      }
+    }
+    return found == fields.length ? slots : null;
+  }
+
+  /**
+   * A fused field of a segment.
+   */
+  static final class Fused {
+    /** the name of the fused field */
+    final String name;
+    /** the positions of the fused fields in the fields of the query, see {@link BM25FFusedField#slots} */
+    final int[] slots;
+
+    Fused(String name, int[] slots) {
+      this.name = name;
+      this.slots = slots;
+    }
+  }
+
+  /**
+   * Emits every term once, as the bytes produced by the analyzer, with the
+   * frequencies of the term in each field as payload.
+   */
+  private static final class FusedTokenStream extends TokenStream {
+    private final BytesTermAttribute termAtt = addAttribute(BytesTermAttribute.class);
+    private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+    private final Map<BytesRef, int[]> freqs;
+    private final byte[] buffer;
+    private final ByteArrayDataOutput out = new ByteArrayDataOutput();
+    private Iterator<Map.Entry<BytesRef, int[]>> iterator;
+
+    FusedTokenStream(Map<BytesRef, int[]> freqs, int numFields) {
+      this.freqs = freqs;
+      // two vints of at most 5 bytes per field
+      buffer = new byte[10 * numFields];
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      clearAttributes();
+      final Map.Entry<BytesRef, int[]> entry = iterator.next();
+      termAtt.setBytesRef(entry.getKey());
+      final int[] termFreqs = entry.getValue();
+      out.reset(buffer);
+      for (int i = 0; i < termFreqs.length; i++) {
+        if (termFreqs[i] > 0) {
+          out.writeVInt(i);
+          out.writeVInt(termFreqs[i]);
+        }
+      }
+      payloadAtt.setPayload(new BytesRef(buffer, 0, out.getPosition()));
+      return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      iterator = freqs.entrySet().iterator();
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.similarities.Similarity.SimScorer;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Scores a BM25F term with the postings of a {@link BM25FFusedField}: the
+ * frequencies of the term in every field are decoded from the payload of the
+ * document, then scored like {@link BM25FTermScorer} does, adding the fields
+ * in ordinal order, so the scores are the same.
+ */
+final class BM25FFusedTermScorer extends Scorer {
+
+  private final PostingsEnum postings;
+  // by field ordinal
+  private final SimScorer[] scorers;
+  // maps the fields of the payloads to the field ordinals, -1 if ignored
+  private final int[] slots;
+  private final float idf;
+  private final float k1;
+  private final long cost;
+  private final DocIdSetIterator iterator;
+
+  private final int[] freqs;
+  private final ByteArrayDataInput in = new ByteArrayDataInput();
+  private int decodedDoc = -1;
+  private boolean decodedMatch;
+
+  BM25FFusedTermScorer(Weight weight, PostingsEnum postings, SimScorer[] scorers, int[] slots,
+      float idf, float k1, long cost) {
+    super(weight);
+    this.postings = postings;
+    this.scorers = scorers;
+    this.slots = slots;
+    boolean allSlots = true;
+    for (int slot : slots) {
+      allSlots &= slot >= 0;
+    }
+    this.idf = idf;
+    this.k1 = k1;
+    this.cost = cost;
+    this.freqs = new int[scorers.length];
+    // a document may only contain the term in fields that are not scored
+    this.iterator = allSlots ? postings : new FilteredIterator();
+  }
+
+  /**
+   * Decodes the frequencies of the term in the fields of the current
+   * document.
+   *
+   * @return true if the term occurs in a scored field
+   */
+  private boolean decode() throws IOException {
+    final int doc = postings.docID();
+    if (doc == decodedDoc) {
+      return decodedMatch;
+    }
+    for (int i = 0; i < freqs.length; i++) {
+      freqs[i] = 0;
+    }
+    postings.nextPosition();
+    final BytesRef payload = postings.getPayload();
+    boolean found = false;
+    if (payload != null) {
+      in.reset(payload.bytes, payload.offset, payload.length);
+      while (!in.eof()) {
+        final int slot = in.readVInt();
+        final int freq = in.readVInt();
+        if (slot < slots.length && slots[slot] >= 0) {
+          freqs[slots[slot]] = freq;
+          found = true;
+        }
+      }
+    }
+    decodedDoc = doc;
+    decodedMatch = found;
+    return found;
+  }
+
+  /**
+   * @return the frequency of the term in the given field of the current
+   *         document
+   */
+  int getFieldFreq(int field) throws IOException {
+    decode();
+    return freqs[field];
+  }
+
+  @Override
+  public float score() throws IOException {
+    decode();
+    final int doc = postings.docID();
+    float acum = 0;
+    for (int i = 0; i < freqs.length; i++) {
+      if (freqs[i] > 0) {
+        acum += scorers[i].score(doc, freqs[i]);
+      }
+    }
+    final float den = acum + k1;
+    if (den == 0) {
+      return 0;
+    }
+    return (idf * acum) / den;
+  }
+
+  @Override
+  public int freq() throws IOException {
+    decode();
+    int freq = 0;
+    for (int f : freqs) {
+      freq += f;
+    }
+    return freq;
+  }
+
+  @Override
+  public int docID() {
+    return postings.docID();
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return iterator;
+  }
+
+  /**
+   * Skips the documents that only contain the term in fields that are not
+   * scored.
+   */
+  private final class FilteredIterator extends DocIdSetIterator {
+
+    @Override
+    public int docID() {
+      return postings.docID();
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+      return next(postings.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+      return next(postings.advance(target));
+    }
+
+    private int next(int doc) throws IOException {
+      while (doc != NO_MORE_DOCS && !decode()) {
+        doc = postings.nextDoc();
+      }
+      return doc;
+    }
+
+    @Override
+    public long cost() {
+      return cost;
+    }
+  }
+
+}
@@ -0,0 +1,250 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.BytesTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A BM25F field holding precomputed impacts for a fixed parameter profile:
+ * the field has one postings list per term, where every document has a
+ * single position whose payload holds the weighted and length normalized
+ * frequency of the term in the BM25F fields of the document,
+ *
+ * <pre>
+ * x = sum_f w_f * tf_f / ((1 - b_f) + b_f * len_f / avgdl_f)
+ * </pre>
+ *
+ * quantized to a float with 8 bits of mantissa. A BM25F term is then scored
+ * with one postings traversal and <code>idf * x / (x + k1)</code>, without
+ * reading the norms.
+ *
+ * The profile is made of the fields, their weights and their length boosts,
+ * and is part of the name of the field. The average field lengths are not
+ * known at index time, they must be declared with the profile, e.g. from the
+ * statistics of a previous version of the index. k1 is only used at query
+ * time and can change freely:
+ *
+ * <pre>
+ * doc.add(BM25FImpactField.createField(profile, avgFieldLengths, doc, analyzer));
+ * writer.addDocument(doc);
+ * </pre>
+ *
+ * BM25F term queries on the main field use the impacts automatically in the
+ * segments where a field was indexed for their parameters, and fall back to
+ * the postings of the fields otherwise, so the field must be added to all
+ * the documents. Scores only differ from the ones of the regular path by the
+ * quantization, and by the difference between the declared and the actual
+ * average lengths.
+ */
+public final class BM25FImpactField {
+
+  /**
+   * The prefix of the names of the impact fields, the name of a field is the
+   * prefix followed by <code>field^weight/lengthBoost</code> for each field
+   * of the profile, separated by commas.
+   */
+  public static final String FIELD_PREFIX = "_bm25f_impact:";
+
+  /** The type of the impact fields: one position with a payload per document. */
+  public static final FieldType TYPE = new FieldType();
+  static {
+    TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    TYPE.setTokenized(true);
+    TYPE.setOmitNorms(true);
+    TYPE.freeze();
+  }
+
+  private static final char SEPARATOR = ',';
+
+  // the number of low order bits of the float dropped by the quantization
+  private static final int QUANTIZATION_SHIFT = 15;
+
+  private BM25FImpactField() {
+    // no instance
+  }
+
+  /**
+   * Returns the impact field of <code>doc</code> for the given profile,
+   * counting the terms produced by <code>analyzer</code> like the index
+   * writer does. The fields that omit norms are not normalized by length.
+   *
+   * @param avgFieldLengths the average length of each field of the profile,
+   *          in ordinal order
+   * @throws IllegalArgumentException if the number of average lengths does
+   *           not match the number of fields, or if a field name contains a
+   *           comma
+   */
+  public static Field createField(BM25FParameters profile, float[] avgFieldLengths,
+      Document doc, Analyzer analyzer) throws IOException {
+    final BM25FCompiledParameters params = profile.compile();
+    if (avgFieldLengths.length != params.size()) {
+      throw new IllegalArgumentException("expected " + params.size()
+          + " average field lengths, got: " + avgFieldLengths.length);
+    }
+    final String name = fieldName(profile);
+    final String[] fields = params.fieldArray();
+    final int[] lengths = new int[fields.length];
+    final Map<BytesRef, int[]> freqs = BM25FFusedField.termFreqs(fields, doc, analyzer, lengths);
+    final float[] norms = new float[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      final float b = params.lengthBoost(i);
+      norms[i] = omitNorms(doc, fields[i])
+          ? params.weight(i)
+          : params.weight(i) / ((1 - b) + b * lengths[i] / avgFieldLengths[i]);
+    }
+    return new Field(name, new ImpactTokenStream(freqs, norms), TYPE);
+  }
+
+  private static boolean omitNorms(Document doc, String field) {
+    for (IndexableField f : doc.getFields(field)) {
+      if (f.fieldType().indexOptions() != IndexOptions.NONE) {
+        return f.fieldType().omitNorms();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the name of the impact field of the given profile.
+   *
+   * @throws IllegalArgumentException if a field name contains a comma
+   */
+  public static String fieldName(BM25FParameters profile) {
+    final BM25FCompiledParameters params = profile.compile();
+    final String name = impactField(params);
+    if (name == null) {
+      throw new IllegalArgumentException("field names must not contain '"
+          + SEPARATOR + "', got: " + params);
+    }
+    return name;
+  }
+
+  /**
+   * Returns the name of the impact field of the given parameters, null if a
+   * field name contains a comma and cannot have impacts.
+   */
+  static String impactField(BM25FCompiledParameters params) {
+    final StringBuilder name = new StringBuilder(FIELD_PREFIX);
+    for (int i = 0; i < params.size(); i++) {
+      final String field = params.field(i);
+      if (field.indexOf(SEPARATOR) >= 0) {
+        return null;
+      }
+      if (i > 0) {
+        name.append(SEPARATOR);
+      }
+      name.append(field).append('^').append(params.weight(i))
+          .append('/').append(params.lengthBoost(i));
+    }
+    return name.toString();
+  }
+
+  /**
+   * Returns true if the segment has the impact field with the given name.
+   */
+  static boolean hasField(LeafReader reader, String impactField) {
+    return reader.getFieldInfos().fieldInfo(impactField) != null;
+  }
+
+  /**
+   * Quantizes a positive impact, keeping 8 bits of mantissa. The encoding
+   * preserves the order of the impacts, and rounds them down.
+   */
+  static int encode(float impact) {
+    return Float.floatToIntBits(impact) >>> QUANTIZATION_SHIFT;
+  }
+
+  /**
+   * @return the impact encoded with {@link #encode(float)}
+   */
+  static float decode(int bits) {
+    return Float.intBitsToFloat(bits << QUANTIZATION_SHIFT);
+  }
+
+  /**
+   * @return the impact stored in a payload, 0 if there is no payload
+   */
+  static float decode(BytesRef payload, ByteArrayDataInput in) {
+    if (payload == null || payload.length == 0) {
+      return 0;
+    }
+    in.reset(payload.bytes, payload.offset, payload.length);
+    return decode(in.readVInt());
+  }
+
+  /**
+   * Emits every term once, as the bytes produced by the analyzer, with its
+   * quantized impact as payload.
+   */
+  private static final class ImpactTokenStream extends TokenStream {
+    private final BytesTermAttribute termAtt = addAttribute(BytesTermAttribute.class);
+    private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+    private final Map<BytesRef, int[]> freqs;
+    private final float[] norms;
+    // one vint of at most 5 bytes
+    private final byte[] buffer = new byte[5];
+    private final ByteArrayDataOutput out = new ByteArrayDataOutput();
+    private Iterator<Map.Entry<BytesRef, int[]>> iterator;
+
+    ImpactTokenStream(Map<BytesRef, int[]> freqs, float[] norms) {
+      this.freqs = freqs;
+      this.norms = norms;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      clearAttributes();
+      final Map.Entry<BytesRef, int[]> entry = iterator.next();
+      termAtt.setBytesRef(entry.getKey());
+      final int[] termFreqs = entry.getValue();
+      // summed in ordinal order, like the field scores at query time
+      float impact = 0;
+      for (int i = 0; i < termFreqs.length; i++) {
+        if (termFreqs[i] > 0) {
+          impact += termFreqs[i] * norms[i];
+        }
+      }
+      out.reset(buffer);
+      out.writeVInt(encode(impact));
+      payloadAtt.setPayload(new BytesRef(buffer, 0, out.getPosition()));
+      return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      iterator = freqs.entrySet().iterator();
+    }
+  }
+
+}
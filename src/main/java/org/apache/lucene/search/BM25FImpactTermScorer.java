@@ -0,0 +1,84 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.store.ByteArrayDataInput;
+
+/**
+ * Scores a BM25F term with the postings of a {@link BM25FImpactField}: the
+ * weighted and normalized frequency of the term is read from the payload of
+ * the document and saturated with <code>idf * x / (x + k1)</code>.
+ */
+final class BM25FImpactTermScorer extends Scorer {
+
+  private final PostingsEnum postings;
+  private final float idf;
+  private final float k1;
+  private final ByteArrayDataInput in = new ByteArrayDataInput();
+  private int decodedDoc = -1;
+  private float impact;
+
+  BM25FImpactTermScorer(Weight weight, PostingsEnum postings, float idf, float k1) {
+    super(weight);
+    this.postings = postings;
+    this.idf = idf;
+    this.k1 = k1;
+  }
+
+  /**
+   * @return the weighted and normalized frequency of the term in the current
+   *         document
+   */
+  float impact() throws IOException {
+    final int doc = postings.docID();
+    if (doc != decodedDoc) {
+      postings.nextPosition();
+      impact = BM25FImpactField.decode(postings.getPayload(), in);
+      decodedDoc = doc;
+    }
+    return impact;
+  }
+
+  @Override
+  public float score() throws IOException {
+    final float acum = impact();
+    final float den = acum + k1;
+    if (den == 0) {
+      return 0;
+    }
+    return (idf * acum) / den;
+  }
+
+  /**
+   * The frequencies of the fields are not indexed, returns 1.
+   */
+  @Override
+  public int freq() throws IOException {
+    return 1;
+  }
+
+  @Override
+  public int docID() {
+    return postings.docID();
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return postings;
+  }
+
+}
@@ -0,0 +1,327 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.ThreadInterruptedException;
+
+/**
+ * An {@link IndexSearcher} that searches the segments in parallel, slicing
+ * them per query by BM25F cost: the cost of a segment is the number of
+ * postings of the query terms in the BM25F fields of the segment, read from
+ * the term states of the weight. The segments are split in at most
+ * <code>maxSlices</code> slices of consecutive segments minimizing the cost
+ * of the most costly slice, so that a huge segment gets a slice of its own
+ * while the small segments are grouped, instead of one task per segment
+ * whatever its size. The last slice is searched by the calling thread.
+ *
+ * Segments that are too large for a single task, e.g. the few segments of
+ * a force-merged index, can also be split in ranges of doc ids, see
+ * {@link #setMinDocsPerRange(int)}: every range is scored by its own
+ * scorer, created for the segment and advanced to the first doc of the
+ * range, so that a single segment is searched by several threads. A
+ * {@link java.util.concurrent.ForkJoinPool} is a good executor for many
+ * small ranges.
+ *
+ * Every slice is collected by its own collector of the
+ * {@link CollectorManager}, see {@link BM25FTopScoreDocCollector#manager(int)},
+ * and the partial top hits are merged by the manager. Since the slices are
+ * made of consecutive segments and ranges and reduced in order, the top
+ * documents and their scores are the same as with a searcher without
+ * executor, including the order of the documents with the same score.
+ * Queries that are not BM25F queries are sliced by number of documents.
+ * Searches with a single {@link Collector} are not parallel.
+ */
+public class BM25FIndexSearcher extends IndexSearcher {
+
+  /** the default min number of documents of a range: segments are not split */
+  public static final int NO_RANGES = Integer.MAX_VALUE;
+
+  private final ExecutorService executor;
+  private final int maxSlices;
+  private volatile int minDocsPerRange = NO_RANGES;
+
+  /**
+   * Creates a searcher using at most one slice per available processor.
+   */
+  public BM25FIndexSearcher(IndexReader reader, ExecutorService executor) {
+    this(reader, executor, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param executor the executor searching the slices, null to search the
+   *          segments in the calling thread
+   * @param maxSlices the max number of slices per query
+   */
+  public BM25FIndexSearcher(IndexReader reader, ExecutorService executor, int maxSlices) {
+    super(reader, executor);
+    if (maxSlices <= 0) {
+      throw new IllegalArgumentException("maxSlices must be > 0, got " + maxSlices);
+    }
+    this.executor = executor;
+    this.maxSlices = maxSlices;
+  }
+
+  /**
+   * Splits the segments whose cost exceeds the cost of a slice in ranges of
+   * doc ids of at least <code>minDocsPerRange</code> documents, searched
+   * concurrently. By default segments are not split, see {@link #NO_RANGES}.
+   */
+  public void setMinDocsPerRange(int minDocsPerRange) {
+    if (minDocsPerRange <= 0) {
+      throw new IllegalArgumentException("minDocsPerRange must be > 0, got " + minDocsPerRange);
+    }
+    this.minDocsPerRange = minDocsPerRange;
+  }
+
+  /**
+   * @see #setMinDocsPerRange(int)
+   */
+  public int getMinDocsPerRange() {
+    return minDocsPerRange;
+  }
+
+  @Override
+  public <C extends Collector, T> T search(Query query, CollectorManager<C, T> collectorManager)
+      throws IOException {
+    if (executor == null || maxSlices == 1 || leafContexts.isEmpty()
+        || (leafContexts.size() == 1 && minDocsPerRange == NO_RANGES)) {
+      return super.search(query, collectorManager);
+    }
+    // the first collector tells whether the weight needs scores
+    final C first = collectorManager.newCollector();
+    final Weight weight = createNormalizedWeight(query, first.needsScores());
+    final List<List<LeafRange>> slices = slices(weight);
+    final List<C> collectors = new ArrayList<>(slices.size());
+    collectors.add(first);
+    for (int i = 1; i < slices.size(); i++) {
+      collectors.add(collectorManager.newCollector());
+    }
+
+    final List<Future<C>> futures = new ArrayList<>(slices.size() - 1);
+    for (int i = 0; i < slices.size() - 1; i++) {
+      final List<LeafRange> ranges = slices.get(i);
+      final C collector = collectors.get(i);
+      futures.add(executor.submit(new Callable<C>() {
+        @Override
+        public C call() throws Exception {
+          searchRanges(ranges, weight, collector);
+          return collector;
+        }
+      }));
+    }
+    searchRanges(slices.get(slices.size() - 1), weight, collectors.get(slices.size() - 1));
+    for (Future<C> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        throw new ThreadInterruptedException(e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+    }
+    return collectorManager.reduce(collectors);
+  }
+
+  /**
+   * Scores the ranges of a slice, like {@link #search(List, Weight, Collector)}
+   * scores whole segments.
+   */
+  private void searchRanges(List<LeafRange> ranges, Weight weight, Collector collector)
+      throws IOException {
+    for (LeafRange range : ranges) {
+      final LeafCollector leafCollector;
+      try {
+        leafCollector = collector.getLeafCollector(range.context);
+      } catch (CollectionTerminatedException e) {
+        // there is no doc of interest in this segment
+        continue;
+      }
+      final BulkScorer scorer = weight.bulkScorer(range.context);
+      if (scorer != null) {
+        try {
+          // the scorer of the range is advanced to its first doc
+          scorer.score(leafCollector, range.context.reader().getLiveDocs(), range.min, range.max);
+        } catch (CollectionTerminatedException e) {
+          // collection was terminated prematurely
+        }
+      }
+    }
+  }
+
+  /**
+   * Splits the segments of the reader in slices of consecutive segments and
+   * ranges of segments, balanced by the cost of the weight.
+   */
+  List<List<LeafRange>> slices(Weight weight) throws IOException {
+    final long[] leafCosts = new long[leafContexts.size()];
+    long totalCost = 0;
+    for (int i = 0; i < leafCosts.length; i++) {
+      leafCosts[i] = cost(weight, leafContexts.get(i));
+      totalCost += leafCosts[i];
+    }
+    final List<LeafRange> ranges = new ArrayList<>();
+    final List<Long> rangeCosts = new ArrayList<>();
+    final long sliceCost = (totalCost + maxSlices - 1) / maxSlices;
+    for (int i = 0; i < leafCosts.length; i++) {
+      final LeafReaderContext context = leafContexts.get(i);
+      final int maxDoc = context.reader().maxDoc();
+      int numRanges = 1;
+      if (leafCosts[i] > sliceCost && maxDoc / 2 >= minDocsPerRange) {
+        numRanges = (int) Math.min((leafCosts[i] + sliceCost - 1) / sliceCost, maxDoc / minDocsPerRange);
+      }
+      // equal ranges of docs, the postings are assumed to be uniform
+      for (int r = 0; r < numRanges; r++) {
+        final int min = (int) ((long) maxDoc * r / numRanges);
+        final int max = (int) ((long) maxDoc * (r + 1) / numRanges);
+        ranges.add(new LeafRange(context, min, max));
+        rangeCosts.add(leafCosts[i] * (max - min) / Math.max(1, maxDoc));
+      }
+    }
+    final long[] costs = new long[rangeCosts.size()];
+    for (int i = 0; i < costs.length; i++) {
+      costs[i] = rangeCosts.get(i);
+    }
+    final int[] starts = partition(costs, maxSlices);
+    final List<List<LeafRange>> slices = new ArrayList<>(starts.length);
+    for (int i = 0; i < starts.length; i++) {
+      final int end = i + 1 < starts.length ? starts[i + 1] : costs.length;
+      slices.add(merge(ranges.subList(starts[i], end)));
+    }
+    return slices;
+  }
+
+  /**
+   * Merges the consecutive ranges of the same segment, so that a collector
+   * is asked once per segment for a leaf collector.
+   */
+  private static List<LeafRange> merge(List<LeafRange> ranges) {
+    final List<LeafRange> merged = new ArrayList<>(ranges.size());
+    for (LeafRange range : ranges) {
+      final int last = merged.size() - 1;
+      if (last >= 0 && merged.get(last).context == range.context) {
+        merged.set(last, new LeafRange(range.context, merged.get(last).min, range.max));
+      } else {
+        merged.add(range);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Returns the cost of searching a segment with the given weight.
+   */
+  static long cost(Weight weight, LeafReaderContext context) throws IOException {
+    if (weight instanceof BM25FBooleanTermQuery.BM25FTermWeight) {
+      return ((BM25FBooleanTermQuery.BM25FTermWeight) weight).cost(context);
+    }
+    if (weight instanceof BM25FBooleanQuery.BM25FBooleanWeight) {
+      return ((BM25FBooleanQuery.BM25FBooleanWeight) weight).cost(context);
+    }
+    return context.reader().maxDoc();
+  }
+
+  /**
+   * Splits a sequence of costs in at most <code>maxSlices</code> slices of
+   * consecutive costs, minimizing the sum of the costs of the most costly
+   * slice.
+   *
+   * @return the index of the first cost of every slice
+   */
+  static int[] partition(long[] costs, int maxSlices) {
+    if (costs.length == 0) {
+      return new int[0];
+    }
+    // binary search of the smallest cost of the most costly slice
+    long lo = 0;
+    long hi = 0;
+    for (long cost : costs) {
+      lo = Math.max(lo, cost);
+      hi += cost;
+    }
+    while (lo < hi) {
+      final long mid = lo + (hi - lo) / 2;
+      if (numSlices(costs, mid) <= maxSlices) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    final int[] starts = new int[numSlices(costs, lo)];
+    int slice = 0;
+    long sum = 0;
+    for (int i = 0; i < costs.length; i++) {
+      if (i == 0 || sum + costs[i] > lo) {
+        starts[slice++] = i;
+        sum = 0;
+      }
+      sum += costs[i];
+    }
+    assert slice == starts.length;
+    return starts;
+  }
+
+  /**
+   * @return the number of slices of consecutive costs whose sum is at most
+   *         <code>maxCost</code>, filled greedily
+   */
+  private static int numSlices(long[] costs, long maxCost) {
+    int numSlices = 1;
+    long sum = 0;
+    for (long cost : costs) {
+      if (sum + cost > maxCost) {
+        numSlices++;
+        sum = 0;
+      }
+      sum += cost;
+    }
+    return numSlices;
+  }
+
+  /**
+   * A range of doc ids of a segment, searched by a single thread.
+   */
+  static final class LeafRange {
+    final LeafReaderContext context;
+    // inclusive
+    final int min;
+    // exclusive
+    final int max;
+
+    LeafRange(LeafReaderContext context, int min, int max) {
+      this.context = context;
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    public String toString() {
+      return "LeafRange(ord=" + context.ord + ", [" + min + ", " + max + "))";
+    }
+  }
+
+}
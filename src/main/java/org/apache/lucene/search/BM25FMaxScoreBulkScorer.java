@@ -0,0 +1,248 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.search.BM25FTopScoreDocCollector.TopScoreLeafCollector;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Scores a disjunction of BM25F terms with the MaxScore algorithm (Turtle
+ * and Flood, 1995). The score of a BM25F term is bounded by
+ * {@link BM25FBooleanTermQuery.BM25FTermWeight#maxScore}; terms are sorted by
+ * bound, and the terms with the lowest bounds whose sum cannot reach the
+ * score of the current k-th best document are <i>non essential</i>: they
+ * are not iterated, and only advanced on the documents matched by the
+ * essential terms, as long as the document can still become competitive.
+ *
+ * When the fields are indexed with
+ * {@link org.apache.lucene.codecs.bm25f.BM25FBlockMaxPostingsFormat} the
+ * bounds are refined per block of documents (see
+ * {@link BM25FTermScorer#blockMaxScore(int)}): the non essential terms are
+ * bounded by the maxima of their current blocks, and whole ranges of
+ * documents are skipped when the sum of the block bounds of all the terms
+ * is not competitive, like in Block-Max WAND (Ding and Suel, 2011).
+ *
+ * Pruning is only enabled when collecting with a
+ * {@link BM25FTopScoreDocCollector}, with other collectors all the
+ * documents are scored.
+ */
+final class BM25FMaxScoreBulkScorer extends BulkScorer {
+
+  private final BM25FTermScorer[] scorers;
+  private final DocIdSetIterator[] iterators;
+  // cumulated bounds, cumMaxScores[i] is the sum of the bounds of the
+  // terms 0..i
+  private final float[] cumMaxScores;
+  private final DocIdSetIterator[] prohibited;
+  private final long cost;
+  private final FakeScorer fakeScorer = new FakeScorer();
+  // scores of the terms on the current doc, NaN if the term does not match
+  private final float[] termScores;
+  // cumulated block bounds of the non essential terms on the current doc
+  private final float[] cumBlockMaxScores;
+
+  // terms before firstEssential are non essential
+  private int firstEssential;
+
+  BM25FMaxScoreBulkScorer(List<BM25FTermScorer> scorers, List<Float> maxScores,
+      List<DocIdSetIterator> prohibited) {
+    final int n = scorers.size();
+    final Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    final float[] bounds = new float[n];
+    for (int i = 0; i < n; i++) {
+      bounds[i] = maxScores.get(i);
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Float.compare(bounds[a], bounds[b]);
+      }
+    });
+    this.scorers = new BM25FTermScorer[n];
+    this.iterators = new DocIdSetIterator[n];
+    this.cumMaxScores = new float[n];
+    long cost = 0;
+    float sum = 0;
+    for (int i = 0; i < n; i++) {
+      this.scorers[i] = scorers.get(order[i]);
+      this.iterators[i] = this.scorers[i].iterator();
+      sum += bounds[order[i]];
+      cumMaxScores[i] = sum;
+      cost += iterators[i].cost();
+    }
+    this.cost = cost;
+    this.prohibited = prohibited.toArray(new DocIdSetIterator[prohibited.size()]);
+    termScores = new float[n];
+    cumBlockMaxScores = new float[n];
+    firstEssential = 0;
+  }
+
+  /**
+   * Moves the terms whose bounds cannot make a document competitive to the
+   * non essential set.
+   */
+  private void updateEssential(float minCompetitiveScore) {
+    while (firstEssential < cumMaxScores.length
+        && cumMaxScores[firstEssential] <= minCompetitiveScore) {
+      firstEssential++;
+    }
+  }
+
+  private int essentialDoc() {
+    int doc = DocIdSetIterator.NO_MORE_DOCS;
+    for (int i = firstEssential; i < iterators.length; i++) {
+      doc = Math.min(doc, iterators[i].docID());
+    }
+    return doc;
+  }
+
+  @Override
+  public int score(LeafCollector collector, Bits acceptDocs, int min, int max)
+      throws IOException {
+    final TopScoreLeafCollector topCollector = collector instanceof TopScoreLeafCollector
+        ? (TopScoreLeafCollector) collector : null;
+    float minCompetitiveScore = topCollector == null
+        ? Float.NEGATIVE_INFINITY : topCollector.minCompetitiveScore();
+    updateEssential(minCompetitiveScore);
+    collector.setScorer(fakeScorer);
+
+    for (int i = firstEssential; i < iterators.length; i++) {
+      if (iterators[i].docID() < min) {
+        iterators[i].advance(min);
+      }
+    }
+    int doc = essentialDoc();
+    while (doc < max) {
+      final int next = skipBlocks(doc, minCompetitiveScore);
+      if (next > doc) {
+        for (int i = firstEssential; i < iterators.length; i++) {
+          if (iterators[i].docID() < next) {
+            iterators[i].advance(next);
+          }
+        }
+        doc = essentialDoc();
+        continue;
+      }
+      if (acceptDocs == null || acceptDocs.get(doc)) {
+        if (score(doc, minCompetitiveScore)) {
+          collector.collect(doc);
+          if (topCollector != null) {
+            minCompetitiveScore = topCollector.minCompetitiveScore();
+            updateEssential(minCompetitiveScore);
+          }
+        }
+      }
+      for (int i = firstEssential; i < iterators.length; i++) {
+        if (iterators[i].docID() == doc) {
+          iterators[i].nextDoc();
+        }
+      }
+      doc = essentialDoc();
+    }
+    return doc;
+  }
+
+  /**
+   * Returns the first doc after <code>doc</code> that may be competitive
+   * according to the block bounds of the terms, <code>doc</code> itself if
+   * it may be competitive.
+   */
+  private int skipBlocks(int doc, float minCompetitiveScore) {
+    if (minCompetitiveScore == Float.NEGATIVE_INFINITY) {
+      return doc;
+    }
+    float maxScore = 0;
+    int end = DocIdSetIterator.NO_MORE_DOCS;
+    for (BM25FTermScorer scorer : scorers) {
+      maxScore += scorer.blockMaxScore(doc);
+      end = Math.min(end, scorer.blockEnd());
+    }
+    if (maxScore > minCompetitiveScore) {
+      return doc;
+    }
+    // no doc up to end can be competitive
+    return end == DocIdSetIterator.NO_MORE_DOCS ? end : end + 1;
+  }
+
+  /**
+   * Scores the given doc into the fake scorer.
+   *
+   * @return false if the doc does not match or cannot be competitive
+   */
+  private boolean score(int doc, float minCompetitiveScore) throws IOException {
+    for (DocIdSetIterator p : prohibited) {
+      if (p.docID() < doc) {
+        p.advance(doc);
+      }
+      if (p.docID() == doc) {
+        return false;
+      }
+    }
+    Arrays.fill(termScores, Float.NaN);
+    float score = 0;
+    int freq = 0;
+    for (int i = firstEssential; i < iterators.length; i++) {
+      if (iterators[i].docID() == doc) {
+        termScores[i] = scorers[i].score();
+        score += termScores[i];
+        freq += scorers[i].freq();
+      }
+    }
+    float cumBlockMaxScore = 0;
+    for (int i = 0; i < firstEssential; i++) {
+      cumBlockMaxScore += scorers[i].blockMaxScore(doc);
+      cumBlockMaxScores[i] = cumBlockMaxScore;
+    }
+    for (int i = firstEssential - 1; i >= 0; i--) {
+      if (score + cumBlockMaxScores[i] <= minCompetitiveScore) {
+        return false;
+      }
+      final DocIdSetIterator it = iterators[i];
+      if (it.docID() < doc) {
+        it.advance(doc);
+      }
+      if (it.docID() == doc) {
+        termScores[i] = scorers[i].score();
+        score += termScores[i];
+        freq += scorers[i].freq();
+      }
+    }
+    // sum again in a fixed order, so that the score does not depend on which
+    // terms were essential
+    score = 0;
+    for (float termScore : termScores) {
+      if (!Float.isNaN(termScore)) {
+        score += termScore;
+      }
+    }
+    fakeScorer.doc = doc;
+    fakeScorer.score = score;
+    fakeScorer.freq = freq;
+    return true;
+  }
+
+  @Override
+  public long cost() {
+    return cost;
+  }
+
+}
@@ -0,0 +1,387 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores the documents matching at least <code>minShouldMatch</code> of
+ * several BM25F terms, every term iterating the union of its fields with a
+ * {@link BM25FTermScorer}. It works like Lucene's MinShouldMatchSumScorer:
+ * the terms are split in
+ * <ul>
+ * <li>the <i>lead</i>, the terms positioned on the current doc,</li>
+ * <li>the <i>head</i>, a heap of the terms positioned after the current doc,
+ * ordered by doc,</li>
+ * <li>the <i>tail</i>, a heap of at most <code>minShouldMatch - 1</code>
+ * terms positioned before the current doc, ordered by cost.</li>
+ * </ul>
+ * A candidate is the doc of the top of the head; the tail is only advanced
+ * to the candidates that can still reach <code>minShouldMatch</code> terms,
+ * the least costly terms first, so that the most costly terms skip most of
+ * their postings. Candidates that cannot reach <code>minShouldMatch</code>
+ * are skipped without being scored.
+ *
+ * The terms are saturated one by one and summed in the order of the
+ * clauses, so the scores are the same as the ones of
+ * {@link BM25FBooleanScorer}.
+ */
+final class BM25FMinShouldMatchScorer extends Scorer {
+
+  private static final class Entry {
+    final Scorer scorer;
+    final DocIdSetIterator iterator;
+    final long cost;
+    int doc = -1;
+    // next entry of the lead
+    Entry next;
+
+    Entry(Scorer scorer) {
+      this.scorer = scorer;
+      this.iterator = scorer.iterator();
+      this.cost = iterator.cost();
+    }
+  }
+
+  // in the order of the clauses
+  private final Entry[] entries;
+  private final int minShouldMatch;
+  private final DocIdSetIterator[] prohibited;
+  private final long cost;
+  private final DocIdSetIterator iterator;
+
+  private final Entry[] head;
+  private int headSize;
+  private final Entry[] tail;
+  private int tailSize;
+  private Entry lead;
+  // number of entries in the lead
+  private int freq;
+  private int doc = -1;
+
+  BM25FMinShouldMatchScorer(Weight weight, List<? extends Scorer> scorers, int minShouldMatch,
+      List<DocIdSetIterator> prohibited) {
+    super(weight);
+    if (minShouldMatch < 1 || minShouldMatch > scorers.size()) {
+      throw new IllegalArgumentException("minShouldMatch must be in [1, "
+          + scorers.size() + "], got: " + minShouldMatch);
+    }
+    this.minShouldMatch = minShouldMatch;
+    this.prohibited = prohibited.toArray(new DocIdSetIterator[prohibited.size()]);
+    entries = new Entry[scorers.size()];
+    head = new Entry[scorers.size()];
+    tail = new Entry[minShouldMatch - 1];
+    final long[] costs = new long[scorers.size()];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = new Entry(scorers.get(i));
+      costs[i] = entries[i].cost;
+      // all the entries are on doc -1
+      addLead(entries[i]);
+    }
+    // a document matches at least one of the n - minShouldMatch + 1 least
+    // costly terms
+    Arrays.sort(costs);
+    long cost = 0;
+    for (int i = 0; i < costs.length - minShouldMatch + 1; i++) {
+      cost += costs[i];
+    }
+    this.cost = cost;
+    iterator = new MinShouldMatchIterator();
+  }
+
+  @Override
+  public float score() throws IOException {
+    advanceAllTail();
+    float score = 0;
+    for (Entry e : entries) {
+      if (e.doc == doc) {
+        score += e.scorer.score();
+      }
+    }
+    return score;
+  }
+
+  @Override
+  public int freq() throws IOException {
+    advanceAllTail();
+    int freq = 0;
+    for (Entry e : entries) {
+      if (e.doc == doc) {
+        freq += e.scorer.freq();
+      }
+    }
+    return freq;
+  }
+
+  @Override
+  public int docID() {
+    return doc;
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return iterator;
+  }
+
+  final class MinShouldMatchIterator extends DocIdSetIterator {
+
+    @Override
+    public int nextDoc() throws IOException {
+      pushBackLeads();
+      setDocAndFreq();
+      return doNext();
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+      for (Entry e = lead; e != null; e = e.next) {
+        final Entry evicted = insertTailWithOverflow(e);
+        if (evicted != null) {
+          evicted.doc = evicted.iterator.advance(target);
+          addHead(evicted);
+        }
+      }
+      lead = null;
+      freq = 0;
+      while (headSize > 0 && head[0].doc < target) {
+        // the tail is usually full, since it has at most minShouldMatch - 1
+        // entries and the lead had at least minShouldMatch entries
+        final Entry evicted = insertTailWithOverflow(head[0]);
+        if (evicted == null) {
+          popHead();
+        } else {
+          evicted.doc = evicted.iterator.advance(target);
+          head[0] = evicted;
+          downHeapDoc();
+        }
+      }
+      setDocAndFreq();
+      return doNext();
+    }
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public long cost() {
+      return cost;
+    }
+  }
+
+  /**
+   * Moves to the next candidate until it matches at least minShouldMatch
+   * terms, and none of the prohibited terms.
+   */
+  private int doNext() throws IOException {
+    while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+      if (freq >= minShouldMatch) {
+        if (!prohibited(doc)) {
+          return doc;
+        }
+      } else if (freq + tailSize >= minShouldMatch) {
+        // the candidate may still match, the least costly term of the tail
+        // is advanced first
+        advanceTail();
+        continue;
+      }
+      pushBackLeads();
+      setDocAndFreq();
+    }
+    return doc;
+  }
+
+  private boolean prohibited(int doc) throws IOException {
+    for (DocIdSetIterator p : prohibited) {
+      int pDoc = p.docID();
+      if (pDoc < doc) {
+        pDoc = p.advance(doc);
+      }
+      if (pDoc == doc) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Pops the entries of the head positioned on the first doc, they become
+   * the lead.
+   */
+  private void setDocAndFreq() {
+    lead = popHead();
+    lead.next = null;
+    freq = 1;
+    doc = lead.doc;
+    while (headSize > 0 && head[0].doc == doc) {
+      addLead(popHead());
+    }
+  }
+
+  /**
+   * Moves the lead to the tail, the entries that overflow the tail are
+   * moved to the head, after the current doc.
+   */
+  private void pushBackLeads() throws IOException {
+    for (Entry e = lead; e != null; e = e.next) {
+      final Entry evicted = insertTailWithOverflow(e);
+      if (evicted != null) {
+        if (evicted.doc == doc) {
+          evicted.doc = evicted.iterator.nextDoc();
+        } else {
+          evicted.doc = evicted.iterator.advance(doc + 1);
+        }
+        addHead(evicted);
+      }
+    }
+    lead = null;
+    freq = 0;
+  }
+
+  private void advanceTail() throws IOException {
+    final Entry top = popTail();
+    top.doc = top.iterator.advance(doc);
+    if (top.doc == doc) {
+      addLead(top);
+    } else {
+      addHead(top);
+    }
+  }
+
+  /**
+   * Positions all the terms of the tail, so that all the terms matching the
+   * current doc are in the lead.
+   */
+  private void advanceAllTail() throws IOException {
+    while (tailSize > 0) {
+      advanceTail();
+    }
+  }
+
+  private void addLead(Entry e) {
+    e.next = lead;
+    lead = e;
+    freq++;
+  }
+
+  // head, a min heap by doc
+
+  private void addHead(Entry e) {
+    int i = headSize++;
+    int j = (i - 1) >>> 1;
+    while (i > 0 && e.doc < head[j].doc) {
+      head[i] = head[j];
+      i = j;
+      j = (i - 1) >>> 1;
+    }
+    head[i] = e;
+  }
+
+  private Entry popHead() {
+    final Entry result = head[0];
+    headSize--;
+    head[0] = head[headSize];
+    head[headSize] = null;
+    if (headSize > 0) {
+      downHeapDoc();
+    }
+    return result;
+  }
+
+  private void downHeapDoc() {
+    int i = 0;
+    final Entry node = head[0];
+    int j = 1;
+    while (j < headSize) {
+      final int k = j + 1;
+      if (k < headSize && head[k].doc < head[j].doc) {
+        j = k;
+      }
+      if (head[j].doc >= node.doc) {
+        break;
+      }
+      head[i] = head[j];
+      i = j;
+      j = (i << 1) + 1;
+    }
+    head[i] = node;
+  }
+
+  // tail, a min heap by cost
+
+  /**
+   * Adds an entry to the tail if it is not full, or replaces the least
+   * costly entry of the tail if it is more costly.
+   *
+   * @return the entry that does not fit in the tail, null if none
+   */
+  private Entry insertTailWithOverflow(Entry e) {
+    if (tailSize < tail.length) {
+      addTail(e);
+      return null;
+    }
+    if (tail.length > 0 && tail[0].cost < e.cost) {
+      final Entry top = tail[0];
+      tail[0] = e;
+      downHeapCost();
+      return top;
+    }
+    return e;
+  }
+
+  private void addTail(Entry e) {
+    int i = tailSize++;
+    int j = (i - 1) >>> 1;
+    while (i > 0 && e.cost < tail[j].cost) {
+      tail[i] = tail[j];
+      i = j;
+      j = (i - 1) >>> 1;
+    }
+    tail[i] = e;
+  }
+
+  private Entry popTail() {
+    final Entry result = tail[0];
+    tailSize--;
+    tail[0] = tail[tailSize];
+    tail[tailSize] = null;
+    if (tailSize > 0) {
+      downHeapCost();
+    }
+    return result;
+  }
+
+  private void downHeapCost() {
+    int i = 0;
+    final Entry node = tail[0];
+    int j = 1;
+    while (j < tailSize) {
+      final int k = j + 1;
+      if (k < tailSize && tail[k].cost < tail[j].cost) {
+        j = k;
+      }
+      if (tail[j].cost >= node.cost) {
+        break;
+      }
+      tail[i] = tail[j];
+      i = j;
+      j = (i << 1) + 1;
+    }
+    tail[i] = node;
+  }
+
+}
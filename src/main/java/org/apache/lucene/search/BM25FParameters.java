@@ -18,9 +18,11 @@
 package org.apache.lucene.search;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Parameters needed to calculate the BM25F relevance score.
@@ -31,8 +33,41 @@ import java.util.Map;
 
 public class BM25FParameters {
 
+	/**
+	 * How the document frequency of a term, and so its idf, is computed.
+	 */
+	public enum DocFreqMode {
+		/**
+		 * The doc freq of the term in the main field, which must contain the
+		 * text of all the BM25F fields (e.g. a catch-all copy field). Falls
+		 * back to {@link #MAX_FIELD} if there is no main field.
+		 */
+		MAIN_FIELD,
+		/** The max doc freq of the term in the BM25F fields, a lower bound. */
+		MAX_FIELD,
+		/**
+		 * The union of the doc freqs of the term in the BM25F fields, estimated
+		 * assuming that the fields are independent.
+		 */
+		ESTIMATED_UNION,
+		/**
+		 * The number of documents containing the term in any of the BM25F
+		 * fields, computed by merging the postings of the fields, once per
+		 * segment and term.
+		 */
+		EXACT_UNION
+	}
+
+	/**
+	 * @deprecated use {@link #getMainField()} and
+	 *             {@link #setMainField(String)}. The field is still read when
+	 *             the parameters are compiled, see {@link #compile()}.
+	 */
+	@Deprecated
 	public String mainField;
 
+	private DocFreqMode docFreqMode = DocFreqMode.MAIN_FIELD;
+
 	private List<String> fields;
 	/*
 	 * fieldWeights on fields, you can boost more the match on a field rather than
@@ -47,6 +82,12 @@ public class BM25FParameters {
 
 	float k1 = 1;
 
+	/*
+	 * snapshot of the parameters used at query time, dropped every time a
+	 * parameter changes
+	 */
+	private volatile BM25FCompiledParameters compiled;
+
 
 
 	@Override
@@ -55,8 +96,9 @@ public class BM25FParameters {
 		clone.setK1(k1);
 		clone.fieldWeights = new HashMap<String, Float>(fieldWeights);
 		clone.fieldLengthBoosts = new HashMap<String, Float>(fieldLengthBoosts);
-		clone.fields = fields;
+		clone.fields = new ArrayList<>(fields);
 		clone.mainField = mainField;
+		clone.docFreqMode = docFreqMode;
 		return clone;
 	}
 
@@ -71,9 +113,39 @@ public class BM25FParameters {
 		fieldLengthBoosts.put(field, fieldLengthBoost);
 		fieldWeights.put(field, fieldWeight);
 		fields.add(field);
+		compiled = null;
 		return this;
 	}
 
+	/**
+	 * Returns an immutable snapshot of these parameters, with the fields in
+	 * ordinal order and their weights and length boosts in primitive arrays.
+	 * The snapshot is cached until a parameter is modified, or until the
+	 * deprecated {@link #mainField} is assigned directly.
+	 * 
+	 * @return the compiled parameters
+	 */
+	public BM25FCompiledParameters compile() {
+		BM25FCompiledParameters c = compiled;
+		if (c == null || !Objects.equals(c.mainField(), mainField)) {
+			final int size = fields.size();
+			final String[] f = fields.toArray(new String[size]);
+			final float[] weights = new float[size];
+			final float[] lengthBoosts = new float[size];
+			for (int i = 0; i < size; i++) {
+				weights[i] = valueOrDefault(fieldWeights.get(f[i]));
+				lengthBoosts[i] = valueOrDefault(fieldLengthBoosts.get(f[i]));
+			}
+			c = new BM25FCompiledParameters(mainField, f, weights, lengthBoosts, k1, docFreqMode);
+			compiled = c;
+		}
+		return c;
+	}
+
+	private static float valueOrDefault(Float value) {
+		return value == null ? 1 : value;
+	}
+
 
 
 	public float getBoost(String field) {
@@ -103,13 +175,14 @@ public class BM25FParameters {
 		for (int i = 0; i < fields.size(); i++) {
 			this.fieldWeights.put(fields.get(i), fieldWeights[i]);
 		}
+		compiled = null;
 	}
 
 	/**
 	 * @return the fieldWeights (see bm25f formula)
 	 */
 	public Map<String, Float> getFieldWeights() {
-		return fieldWeights;
+		return Collections.unmodifiableMap(fieldWeights);
 	}
 
 	/**
@@ -121,13 +194,14 @@ public class BM25FParameters {
 		for (int i = 0; i < fields.size(); i++) {
 			this.fieldLengthBoosts.put(fields.get(i), fieldLengthBoosts[i]);
 		}
+		compiled = null;
 	}
 
 	/**
 	 * @return the fieldLengthBoosts (see bm25f formula)
 	 */
 	public Map<String, Float> getFieldLengthBoosts() {
-		return fieldLengthBoosts;
+		return Collections.unmodifiableMap(fieldLengthBoosts);
 	}
 
 	/**
@@ -143,6 +217,7 @@ public class BM25FParameters {
 	 */
 	public void setK1(float k1) {
 		this.k1 = k1;
+		compiled = null;
 	}
 
 	/*
@@ -158,6 +233,8 @@ public class BM25FParameters {
 		result = prime * result + ((fieldWeights == null) ? 0 : fieldWeights.hashCode());
 		result = prime * result + fields.hashCode();
 		result = prime * result + Float.floatToIntBits(k1);
+		result = prime * result + ((mainField == null) ? 0 : mainField.hashCode());
+		result = prime * result + docFreqMode.ordinal();
 		return result;
 	}
 
@@ -185,9 +262,17 @@ public class BM25FParameters {
 				return false;
 		} else if (!fieldWeights.equals(other.fieldWeights))
 			return false;
-		// FIXME check this hashfunction
+		if (!fields.equals(other.fields))
+			return false;
 		if (Float.floatToIntBits(k1) != Float.floatToIntBits(other.k1))
 			return false;
+		if (mainField == null) {
+			if (other.mainField != null)
+				return false;
+		} else if (!mainField.equals(other.mainField))
+			return false;
+		if (docFreqMode != other.docFreqMode)
+			return false;
 		return true;
 	}
 
@@ -195,8 +280,38 @@ public class BM25FParameters {
 		return mainField;
 	}
 
+	/**
+	 * @param mainField
+	 *            the field whose terms are searched in all the BM25F fields,
+	 *            and whose doc freqs are used for the idf with
+	 *            {@link DocFreqMode#MAIN_FIELD}. Optional: without main
+	 *            field, the terms on a field that is not a BM25F field are
+	 *            searched in all the BM25F fields.
+	 */
 	public void setMainField(String mainField) {
 		this.mainField = mainField;
+		compiled = null;
+	}
+
+	/**
+	 * @return how the doc freqs of the terms are computed
+	 */
+	public DocFreqMode getDocFreqMode() {
+		return docFreqMode;
+	}
+
+	/**
+	 * @param docFreqMode
+	 *            how the doc freqs of the terms are computed, the other modes
+	 *            than {@link DocFreqMode#MAIN_FIELD} do not need a catch-all
+	 *            field
+	 */
+	public void setDocFreqMode(DocFreqMode docFreqMode) {
+		if (docFreqMode == null) {
+			throw new NullPointerException("docFreqMode must not be null");
+		}
+		this.docFreqMode = docFreqMode;
+		compiled = null;
 	}
 
 	/*
@@ -208,7 +323,7 @@ public class BM25FParameters {
 	public String toString() {
 		return "BM25FParameters [fields=" + fields.toString()
 				+ ", fieldWeights=" + fieldWeights + ", fieldLengthBoosts=" + fieldLengthBoosts + ", k1=" + k1
-				+ "]";
+				+ ", docFreqMode=" + docFreqMode + "]";
 	}
 
 }
@@ -0,0 +1,59 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import org.apache.lucene.codecs.bm25f.BM25FBlockMaxes;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.similarities.Similarity.SimScorer;
+
+/**
+ * The postings of a term in one of the BM25F fields, together with the
+ * {@link SimScorer} used to weight its frequencies. Instances are the
+ * elements of a {@link BM25FPostingsQueue}.
+ */
+final class BM25FPostings {
+
+  /** the postings of the term in the field */
+  final PostingsEnum postings;
+  /** the scorer for the field, null if the postings are only used for matching */
+  final SimScorer scorer;
+  /** ordinal of the field in the weight */
+  final int field;
+  /** ordinal of the term in the query, 0 for a single term query */
+  final int term;
+  /** number of documents containing the term in the field */
+  final long cost;
+  /** the block maxima of the postings, null if not indexed */
+  final BM25FBlockMaxes blockMaxes;
+
+  /** the current doc, cached so that the queue does not call docID() */
+  int doc = -1;
+
+  /** the current block in {@link #blockMaxes} */
+  int block;
+
+  /** next postings positioned on the same doc, see {@link BM25FPostingsQueue#topList()} */
+  BM25FPostings next;
+
+  BM25FPostings(PostingsEnum postings, SimScorer scorer, int field, int term, long cost,
+      BM25FBlockMaxes blockMaxes) {
+    this.postings = postings;
+    this.scorer = scorer;
+    this.field = field;
+    this.term = term;
+    this.cost = cost;
+    this.blockMaxes = blockMaxes;
+  }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+
+/**
+ * A min-heap of {@link BM25FPostings} ordered by their current doc. It is
+ * used to merge the postings of one or several terms over the BM25F fields:
+ * iterating the union costs O(log(n)) per posting, and
+ * {@link #advance(int)} relies on the skip lists of every postings list.
+ */
+final class BM25FPostingsQueue {
+
+  private final BM25FPostings[] heap;
+  private int size;
+
+  BM25FPostingsQueue(int maxSize) {
+    heap = new BM25FPostings[maxSize];
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the postings with the smallest doc, null if the queue is empty
+   */
+  BM25FPostings top() {
+    return heap[0];
+  }
+
+  /**
+   * @return the current doc of the union, {@link DocIdSetIterator#NO_MORE_DOCS}
+   *         if the queue is empty
+   */
+  int doc() {
+    return size == 0 ? DocIdSetIterator.NO_MORE_DOCS : heap[0].doc;
+  }
+
+  void add(BM25FPostings entry) {
+    heap[size] = entry;
+    upHeap(size);
+    size++;
+  }
+
+  /**
+   * Removes and returns the postings with the smallest doc.
+   */
+  BM25FPostings pop() {
+    final BM25FPostings result = heap[0];
+    size--;
+    heap[0] = heap[size];
+    heap[size] = null;
+    if (size > 0) {
+      downHeap(0);
+    }
+    return result;
+  }
+
+  /**
+   * Restores the heap order after the doc of the top postings changed.
+   *
+   * @return the new top
+   */
+  BM25FPostings updateTop() {
+    downHeap(0);
+    return heap[0];
+  }
+
+  /**
+   * Moves every postings to the next doc after the current doc of the union.
+   *
+   * @return the new doc of the union
+   */
+  int nextDoc() throws IOException {
+    BM25FPostings top = heap[0];
+    final int doc = top.doc;
+    do {
+      top.doc = top.postings.nextDoc();
+      top = updateTop();
+    } while (top.doc == doc);
+    return top.doc;
+  }
+
+  /**
+   * Moves every postings positioned before <code>target</code> to the first
+   * doc greater than or equal to <code>target</code>, using skip lists.
+   *
+   * @return the new doc of the union
+   */
+  int advance(int target) throws IOException {
+    BM25FPostings top = heap[0];
+    do {
+      top.doc = top.postings.advance(target);
+      top = updateTop();
+    } while (top.doc < target);
+    return top.doc;
+  }
+
+  /**
+   * Returns the list of postings positioned on the current doc of the union,
+   * linked through {@link BM25FPostings#next}.
+   */
+  BM25FPostings topList() {
+    final BM25FPostings top = heap[0];
+    top.next = null;
+    if (size >= 3) {
+      BM25FPostings list = prependEqual(top, 1, top.doc);
+      return prependEqual(list, 2, top.doc);
+    } else if (size == 2 && heap[1].doc == top.doc) {
+      heap[1].next = top;
+      return heap[1];
+    }
+    return top;
+  }
+
+  /**
+   * Same as {@link #topList()}, but the postings are sorted by term and field
+   * ordinal, so that scores are always summed in the same order whatever the
+   * way the union was positioned on the doc.
+   */
+  BM25FPostings orderedTopList() {
+    BM25FPostings list = topList();
+    BM25FPostings sorted = null;
+    while (list != null) {
+      final BM25FPostings entry = list;
+      list = list.next;
+      if (sorted == null || compare(entry, sorted) < 0) {
+        entry.next = sorted;
+        sorted = entry;
+      } else {
+        BM25FPostings prev = sorted;
+        while (prev.next != null && compare(prev.next, entry) < 0) {
+          prev = prev.next;
+        }
+        entry.next = prev.next;
+        prev.next = entry;
+      }
+    }
+    return sorted;
+  }
+
+  private static int compare(BM25FPostings a, BM25FPostings b) {
+    if (a.term != b.term) {
+      return a.term - b.term;
+    }
+    return a.field - b.field;
+  }
+
+  private BM25FPostings prependEqual(BM25FPostings list, int i, int doc) {
+    final BM25FPostings entry = heap[i];
+    if (entry.doc == doc) {
+      entry.next = list;
+      list = entry;
+      final int left = (i << 1) + 1;
+      if (left < size) {
+        list = prependEqual(list, left, doc);
+        if (left + 1 < size) {
+          list = prependEqual(list, left + 1, doc);
+        }
+      }
+    }
+    return list;
+  }
+
+  private void upHeap(int i) {
+    final BM25FPostings node = heap[i];
+    int j = (i - 1) >>> 1;
+    while (i > 0 && node.doc < heap[j].doc) {
+      heap[i] = heap[j];
+      i = j;
+      j = (i - 1) >>> 1;
+    }
+    heap[i] = node;
+  }
+
+  private void downHeap(int i) {
+    final BM25FPostings node = heap[i];
+    int j = (i << 1) + 1;
+    if (j < size) {
+      int k = j + 1;
+      if (k < size && heap[k].doc < heap[j].doc) {
+        j = k;
+      }
+      while (heap[j].doc < node.doc) {
+        heap[i] = heap[j];
+        i = j;
+        j = (i << 1) + 1;
+        if (j >= size) {
+          break;
+        }
+        k = j + 1;
+        if (k < size && heap[k].doc < heap[j].doc) {
+          j = k;
+        }
+      }
+      heap[i] = node;
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.util.Bits;
+
+/**
+ * Scores a single BM25F term in windows of {@link #WINDOW_SIZE} documents:
+ * the postings of each field are drained into the window one after the
+ * other, accumulating the weighted and normalized frequencies in a dense
+ * array, then the matching documents of the window are saturated with
+ * <code>idf * acc / (acc + k1)</code> and collected in order. Compared to
+ * {@link BM25FTermScorer}, there is no heap and no per document virtual
+ * call to iterate the fields.
+ *
+ * The fields are accumulated in ordinal order, so the scores are the same
+ * as the ones of {@link BM25FTermScorer}.
+ */
+final class BM25FTermBulkScorer extends BulkScorer {
+
+  static final int WINDOW_SIZE = 2048;
+  private static final int MASK = WINDOW_SIZE - 1;
+
+  // non null postings, by field ordinal
+  private final BM25FPostings[] postings;
+  private final float idf;
+  private final float k1;
+  private final long cost;
+
+  private final float[] acc = new float[WINDOW_SIZE];
+  private final int[] freqs = new int[WINDOW_SIZE];
+  private final long[] matching = new long[WINDOW_SIZE >>> 6];
+  private final FakeScorer fakeScorer = new FakeScorer();
+
+  BM25FTermBulkScorer(BM25FPostings[] fieldPostings, float idf, float k1) {
+    int size = 0;
+    long cost = 0;
+    for (BM25FPostings p : fieldPostings) {
+      if (p != null) {
+        size++;
+        cost += p.cost;
+      }
+    }
+    postings = new BM25FPostings[size];
+    size = 0;
+    for (BM25FPostings p : fieldPostings) {
+      if (p != null) {
+        postings[size++] = p;
+      }
+    }
+    this.idf = idf;
+    this.k1 = k1;
+    this.cost = cost;
+  }
+
+  @Override
+  public int score(LeafCollector collector, Bits acceptDocs, int min, int max)
+      throws IOException {
+    collector.setScorer(fakeScorer);
+    int next = advance(min);
+    while (next < max) {
+      final int windowBase = next & ~MASK;
+      final int windowMax = (int) Math.min(max, (long) windowBase + WINDOW_SIZE);
+      scoreWindow(collector, acceptDocs, windowBase, windowMax);
+      next = nextDoc();
+    }
+    return next;
+  }
+
+  /**
+   * Positions the postings on or after <code>target</code>.
+   *
+   * @return the first doc of the union
+   */
+  private int advance(int target) throws IOException {
+    for (BM25FPostings p : postings) {
+      if (p.doc < target) {
+        p.doc = p.postings.advance(target);
+      }
+    }
+    return nextDoc();
+  }
+
+  /**
+   * @return the first doc of the union
+   */
+  private int nextDoc() {
+    int doc = DocIdSetIterator.NO_MORE_DOCS;
+    for (BM25FPostings p : postings) {
+      doc = Math.min(doc, p.doc);
+    }
+    return doc;
+  }
+
+  private void scoreWindow(LeafCollector collector, Bits acceptDocs,
+      int windowBase, int windowMax) throws IOException {
+    for (BM25FPostings p : postings) {
+      final int windowMin = p.doc;
+      if (windowMin >= windowMax) {
+        continue;
+      }
+      int doc = windowMin;
+      do {
+        // deleted documents are not scored
+        if (acceptDocs == null || acceptDocs.get(doc)) {
+          final int freq = p.postings.freq();
+          final int i = doc & MASK;
+          acc[i] += p.scorer.score(doc, freq);
+          freqs[i] += freq;
+          matching[i >>> 6] |= 1L << i;
+        }
+        doc = p.postings.nextDoc();
+      } while (doc < windowMax);
+      p.doc = doc;
+    }
+
+    for (int word = 0; word < matching.length; word++) {
+      long bits = matching[word];
+      while (bits != 0L) {
+        final int i = (word << 6) | Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+        final int doc = windowBase | i;
+        final float a = acc[i];
+        final float den = a + k1;
+        fakeScorer.doc = doc;
+        fakeScorer.score = den == 0 ? 0 : (idf * a) / den;
+        fakeScorer.freq = freqs[i];
+        collector.collect(doc);
+        acc[i] = 0;
+        freqs[i] = 0;
+      }
+    }
+    Arrays.fill(matching, 0L);
+  }
+
+  @Override
+  public long cost() {
+    return cost;
+  }
+
+}
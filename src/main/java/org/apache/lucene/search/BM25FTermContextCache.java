@@ -0,0 +1,185 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A bounded LRU cache of the term states of a segment. BM25F queries look
+ * up their term in every BM25F field when they create their weight, the
+ * cache saves the seeks in the terms dictionaries of every segment for the
+ * hot terms: the {@link TermContext} of a term is assembled from the cached
+ * states of the segments, see {@link #termContext(IndexReaderContext, Term)},
+ * and the term statistics are read from it.
+ *
+ * There is one cache per segment core, keyed by the core cache key so that
+ * the caches never reference a reader; it is dropped when the core is
+ * closed. The states do not depend on the deletions, so a reopened reader
+ * shares the caches of its unchanged segments. Every cache is split in
+ * stripes locked independently, so that concurrent queries rarely contend
+ * on the same lock; a state may be read twice by concurrent queries on a
+ * miss.
+ */
+final class BM25FTermContextCache {
+
+  /** the max number of terms cached per segment */
+  static final int DEFAULT_MAX_SIZE = 4096;
+
+  /** the number of independently locked stripes of a cache */
+  static final int DEFAULT_NUM_STRIPES = 16;
+
+  private static final ConcurrentMap<Object, BM25FTermContextCache> CACHES = new ConcurrentHashMap<>();
+
+  private static final LeafReader.CoreClosedListener REMOVE_ON_CLOSE = new LeafReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      CACHES.remove(ownerCoreCacheKey);
+    }
+  };
+
+  // marks the terms that the segment does not contain
+  private static final TermStats ABSENT = new TermStats(null, 0, 0);
+
+  /**
+   * Returns the context of the given term in the given top level context,
+   * built from the cached states of its segments.
+   */
+  static TermContext termContext(IndexReaderContext context, Term term) throws IOException {
+    assert context.isTopLevel;
+    final TermContext termContext = new TermContext(context);
+    for (LeafReaderContext leaf : context.leaves()) {
+      final TermStats stats = forReader(leaf.reader()).get(leaf.reader(), term);
+      if (stats != ABSENT) {
+        termContext.register(stats.state, leaf.ord, stats.docFreq, stats.totalTermFreq);
+      }
+    }
+    return termContext;
+  }
+
+  /**
+   * Returns the cache of the core of the given segment.
+   */
+  static BM25FTermContextCache forReader(LeafReader reader) {
+    final Object key = reader.getCoreCacheKey();
+    BM25FTermContextCache cache = CACHES.get(key);
+    if (cache == null) {
+      final BM25FTermContextCache newCache = new BM25FTermContextCache(DEFAULT_MAX_SIZE, DEFAULT_NUM_STRIPES);
+      cache = CACHES.putIfAbsent(key, newCache);
+      if (cache == null) {
+        cache = newCache;
+        reader.addCoreClosedListener(REMOVE_ON_CLOSE);
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return true if a cache exists for the core of the given segment, for
+   *         testing
+   */
+  static boolean isCached(LeafReader reader) {
+    return CACHES.containsKey(reader.getCoreCacheKey());
+  }
+
+  private final Map<Term, TermStats>[] stripes;
+
+  @SuppressWarnings("unchecked")
+  BM25FTermContextCache(int maxSize, int numStripes) {
+    stripes = new Map[numStripes];
+    final int maxStripeSize = Math.max(1, maxSize / numStripes);
+    for (int i = 0; i < numStripes; i++) {
+      // access ordered, evicts the least recently used term of the stripe
+      stripes[i] = new LinkedHashMap<Term, TermStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Term, TermStats> eldest) {
+          return size() > maxStripeSize;
+        }
+      };
+    }
+  }
+
+  private Map<Term, TermStats> stripe(Term term) {
+    // the high bits of the hash are spread, like in HashMap
+    final int h = term.hashCode();
+    return stripes[((h ^ (h >>> 16)) & 0x7FFFFFFF) % stripes.length];
+  }
+
+  /**
+   * Returns the state of the given term in the given segment, read from the
+   * terms dictionary on a miss, {@link #ABSENT} if the segment does not
+   * contain the term.
+   */
+  TermStats get(LeafReader reader, Term term) throws IOException {
+    final Map<Term, TermStats> stripe = stripe(term);
+    TermStats stats;
+    synchronized (stripe) {
+      stats = stripe.get(term);
+    }
+    if (stats == null) {
+      // read out of the lock, the terms dictionary may be slow
+      stats = ABSENT;
+      final Terms terms = reader.terms(term.field());
+      if (terms != null) {
+        final TermsEnum termsEnum = terms.iterator();
+        if (termsEnum.seekExact(term.bytes())) {
+          stats = new TermStats(termsEnum.termState(), termsEnum.docFreq(), termsEnum.totalTermFreq());
+        }
+      }
+      // the key outlives the query, its bytes are copied
+      final Term key = new Term(term.field(), BytesRef.deepCopyOf(term.bytes()));
+      synchronized (stripe) {
+        stripe.put(key, stats);
+      }
+    }
+    return stats;
+  }
+
+  int size() {
+    int size = 0;
+    for (Map<Term, TermStats> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  /** the state and the statistics of a term in a segment */
+  static final class TermStats {
+    final TermState state;
+    final int docFreq;
+    final long totalTermFreq;
+
+    TermStats(TermState state, int docFreq, long totalTermFreq) {
+      this.state = state;
+      this.docFreq = docFreq;
+      this.totalTermFreq = totalTermFreq;
+    }
+  }
+
+}
@@ -19,59 +19,93 @@ import java.io.IOException;
 
 import org.apache.lucene.search.BM25FBooleanTermQuery.BM25FTermWeight;
 
-import org.apache.lucene.index.PostingsEnum;
-import org.apache.lucene.search.similarities.Similarity.SimScorer;
 import org.apache.lucene.util.Bits;
 
 /**
  * Scorer for a query composed by only one term. Documents are scored using the
  * BM25F ranking function.
  *
+ * The scorer skips the documents that are not accepted by the live docs of
+ * the segment, and leapfrogs the union of the fields with an optional filter
+ * using {@link DocIdSetIterator#advance(int)}, so that no document is scored
+ * if it is going to be discarded.
+ *
  * @author Diego Ceccarelli <diego.ceccarelli@isti.cnr.it>
  *
  *         Created on Nov 25, 2012
  */
 public class BM25FTermScorer extends Scorer {
-  private final SimScorer[] scorers;
-  private final PostingsEnum[] docsEnums;
+  private final BM25FTermWeight weight;
+  private final BM25FPostings[] fieldPostings;
+  private final BM25FPostingsQueue queue;
   private final Bits acceptDocs;
-  int docId = 0;
+  // null if there is no filter
+  private final DocIdSetIterator filter;
+  int docId = -1;
   private float k1;
   private float idf;
   private final BM25DocIdSetIterator iterator;
+  private final long cost;
+  // postings positioned on docId, null until score() or freq() need them
+  private BM25FPostings topList;
+  // cached result of blockMaxScore, valid up to blockEnd
+  private float blockMaxScore;
+  private int blockEnd = -1;
 
 
+  BM25FTermScorer(BM25FTermWeight bm25fTermWeight, BM25FPostings[] postings,
+      Bits acceptDocs) throws IOException {
+    this(bm25fTermWeight, postings, acceptDocs, null);
+  }
 
-  public BM25FTermScorer(BM25FTermWeight bm25fTermWeight, SimScorer[] scorers,
-      PostingsEnum[] docs, Bits acceptDocs) throws IOException {
+  /**
+   * @param acceptDocs the accepted documents, null if all the documents are
+   *          accepted
+   * @param filter the documents that can match, null if there is no filter
+   */
+  BM25FTermScorer(BM25FTermWeight bm25fTermWeight, BM25FPostings[] postings,
+      Bits acceptDocs, DocIdSetIterator filter) throws IOException {
     super(bm25fTermWeight);
-    this.scorers = scorers;
-    this.docsEnums = docs;
+    weight = bm25fTermWeight;
     this.acceptDocs = acceptDocs;
+    this.filter = filter;
     idf = bm25fTermWeight.idf;
     k1 = bm25fTermWeight.k1;
+    fieldPostings = postings;
+    queue = new BM25FPostingsQueue(postings.length);
+    long cost = 0;
+    for (BM25FPostings p : postings) {
+      if (p != null) {
+        queue.add(p);
+        cost += p.cost;
+      }
+    }
+    this.cost = filter == null ? cost : Math.min(cost, filter.cost());
     iterator = new BM25DocIdSetIterator();
 
   }
 
   public int getFieldFreq(int field) throws IOException {
-    if (docsEnums[field] == null) {
+    final BM25FPostings postings = fieldPostings[field];
+    if (postings == null || postings.doc != docId) {
       return 0;
     }
-    return docsEnums[field].freq();
+    return postings.postings.freq();
+  }
+
+  private BM25FPostings topList() {
+    if (topList == null) {
+      topList = queue.orderedTopList();
+    }
+    return topList;
   }
 
   @Override
   public float score() throws IOException {
     float acum = 0;
 
-    for (int i = 0; i < scorers.length; i++) {
-      if ((docsEnums[i] == null) || (scorers[i] == null)) {
-        continue;
-      }
-      if (docsEnums[i].docID() == docId) {
-        acum += scorers[i].score(docId, docsEnums[i].freq());
-      }
+    for (BM25FPostings w = topList(); w != null; w = w.next) {
+      acum += w.scorer.score(docId, w.postings.freq());
     }
 
     final float den = acum + k1;
@@ -83,17 +117,52 @@ public class BM25FTermScorer extends Scorer {
     return score;
   }
 
-  @Override
-  public int freq() throws IOException {
-    int freq = 0;
-    for (int i = 0; i < scorers.length; i++) {
-      if ((docsEnums[i] == null) || (scorers[i] == null)) {
+  /**
+   * Returns an upper bound of the score of the documents from
+   * <code>target</code> to {@link #blockEnd()}. It relies on the block maxima
+   * of the fields indexed with
+   * {@link org.apache.lucene.codecs.bm25f.BM25FBlockMaxPostingsFormat}, and on
+   * the bounds of {@link BM25FTermWeight#fieldMaxScore(int)} for the other
+   * fields. Targets must not go backwards.
+   */
+  float blockMaxScore(int target) {
+    if (target <= blockEnd) {
+      return blockMaxScore;
+    }
+    double acc = 0;
+    int end = DocIdSetIterator.NO_MORE_DOCS;
+    for (BM25FPostings p : fieldPostings) {
+      if (p == null) {
+        continue;
+      }
+      if (p.blockMaxes == null) {
+        acc += weight.fieldMaxScore(p.field);
         continue;
       }
-      if (docsEnums[i].docID() == docId) {
-        freq += docsEnums[i].freq();
+      p.block = p.blockMaxes.advance(p.block, target);
+      if (p.block < p.blockMaxes.size()) {
+        acc += weight.fieldMaxScore(p.field, p.blockMaxes.maxFreq(p.block));
+        end = Math.min(end, p.blockMaxes.lastDoc(p.block));
       }
     }
+    blockEnd = end;
+    return blockMaxScore = weight.maxScore(acc);
+  }
+
+  /**
+   * @return the last doc for which the last result of
+   *         {@link #blockMaxScore(int)} holds
+   */
+  int blockEnd() {
+    return blockEnd;
+  }
+
+  @Override
+  public int freq() throws IOException {
+    int freq = 0;
+    for (BM25FPostings w = topList(); w != null; w = w.next) {
+      freq += w.postings.freq();
+    }
     return freq;
   }
 
@@ -109,54 +178,44 @@ public class BM25FTermScorer extends Scorer {
 
   public class BM25DocIdSetIterator extends DocIdSetIterator {
 
-    public BM25DocIdSetIterator() throws IOException {
-      boolean result = false;
-      int min = DocIdSetIterator.NO_MORE_DOCS;
-
-      for (int i = 0; i < docsEnums.length; i++) {
-        if ((docsEnums[i] == null) || (scorers[i] == null)) {
-          continue;
-        }
-        if (docsEnums[i].nextDoc() < DocIdSetIterator.NO_MORE_DOCS) {
-          result = true;
-          min = Math.min(min, docsEnums[i].docID());
-        }
-      }
-      docId = min;
-    }
-
-    private int _nextDoc() throws IOException {
-
-      int min = DocIdSetIterator.NO_MORE_DOCS;
-      for (int i = 0; i < docsEnums.length; i++) {
-        if ((docsEnums[i] == null) || (scorers[i] == null)) {
-          continue;
+    private int accept(int doc) throws IOException {
+      while (doc != NO_MORE_DOCS) {
+        if (filter != null) {
+          int filterDoc = filter.docID();
+          if (filterDoc < doc) {
+            filterDoc = filter.advance(doc);
+          }
+          if (filterDoc != doc) {
+            // the union is behind the filter
+            doc = filterDoc == NO_MORE_DOCS ? NO_MORE_DOCS : queue.advance(filterDoc);
+            continue;
+          }
         }
-
-        if (docsEnums[i].docID() == docId) {
-          docsEnums[i].nextDoc();
-
+        if (acceptDocs == null || acceptDocs.get(doc)) {
+          break;
         }
-        min = Math.min(min, docsEnums[i].docID());
-
+        doc = queue.nextDoc();
       }
-      docId = min;
-
-      return docId;
-
+      topList = null;
+      return docId = doc;
     }
 
     @Override
     public int advance(int target) throws IOException {
-      docId = 0;
-      while ((docId = nextDoc()) < target) {}
-      return docId;
+      if (queue.size() == 0) {
+        return docId = NO_MORE_DOCS;
+      }
+      return accept(queue.advance(target));
     }
 
+    /**
+     * Returns the sum of the document frequencies of the term in the fields,
+     * an upper bound of the number of documents matched, or the cost of the
+     * filter if lower.
+     */
     @Override
     public long cost() {
-      // TODO Auto-generated method stub
-      return 0;
+      return cost;
     }
 
     @Override
@@ -166,12 +225,10 @@ public class BM25FTermScorer extends Scorer {
 
     @Override
     public int nextDoc() throws IOException {
-      int nextDoc = _nextDoc();
-      while ((nextDoc != NO_MORE_DOCS) && (acceptDocs != null)
-          && !acceptDocs.get(nextDoc)) {
-        nextDoc = _nextDoc();
+      if (queue.size() == 0) {
+        return docId = NO_MORE_DOCS;
       }
-      return nextDoc;
+      return accept(queue.nextDoc());
     }
 
   }
@@ -0,0 +1,175 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.index.LeafReaderContext;
+
+/**
+ * A {@link TopDocsCollector} collecting the top scoring documents, like
+ * {@link TopScoreDocCollector}, that lets BM25F scorers know the minimum
+ * score a document needs to enter the top hits. BM25F queries that support
+ * dynamic pruning (see {@link BM25FBooleanQuery}) use it to skip the
+ * documents that cannot be competitive:
+ *
+ * <pre>
+ * BM25FTopScoreDocCollector collector = BM25FTopScoreDocCollector.create(10);
+ * searcher.search(query, collector);
+ * TopDocs topDocs = collector.topDocs();
+ * </pre>
+ *
+ * The top documents and their scores are the same as with
+ * {@link TopScoreDocCollector}, but since skipped documents are not
+ * collected {@link #getTotalHits()} is only a lower bound of the number of
+ * matching documents.
+ *
+ * A collector is not thread safe: searchers with an executor collect every
+ * slice of segments with its own collector, see {@link #manager(int)}.
+ */
+public final class BM25FTopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
+
+  /**
+   * Creates a new collector collecting the <code>numHits</code> top scoring
+   * documents.
+   */
+  public static BM25FTopScoreDocCollector create(int numHits) {
+    if (numHits <= 0) {
+      throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
+    }
+    return new BM25FTopScoreDocCollector(numHits);
+  }
+
+  /**
+   * Returns a {@link CollectorManager} collecting the <code>numHits</code>
+   * top scoring documents of each slice of a searcher with an executor, see
+   * {@link BM25FIndexSearcher}, and merging them. Documents with the same
+   * score are merged in the order of the slices.
+   */
+  public static CollectorManager<BM25FTopScoreDocCollector, TopDocs> manager(final int numHits) {
+    if (numHits <= 0) {
+      throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
+    }
+    return new CollectorManager<BM25FTopScoreDocCollector, TopDocs>() {
+      @Override
+      public BM25FTopScoreDocCollector newCollector() {
+        return new BM25FTopScoreDocCollector(numHits);
+      }
+
+      @Override
+      public TopDocs reduce(Collection<BM25FTopScoreDocCollector> collectors) throws IOException {
+        final TopDocs[] topDocs = new TopDocs[collectors.size()];
+        int i = 0;
+        for (BM25FTopScoreDocCollector collector : collectors) {
+          topDocs[i++] = collector.topDocs();
+        }
+        return TopDocs.merge(numHits, topDocs);
+      }
+    };
+  }
+
+  private ScoreDoc pqTop;
+
+  private BM25FTopScoreDocCollector(int numHits) {
+    super(new HitQueue(numHits, true));
+    // HitQueue implements getSentinelObject to return a ScoreDoc, so we know
+    // that at this point top() is already initialized.
+    pqTop = pq.top();
+  }
+
+  @Override
+  public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+    return new TopScoreLeafCollector(context.docBase);
+  }
+
+  @Override
+  public boolean needsScores() {
+    return true;
+  }
+
+  @Override
+  protected TopDocs newTopDocs(ScoreDoc[] results, int start) {
+    if (results == null) {
+      return EMPTY_TOPDOCS;
+    }
+
+    // We need to compute maxScore in order to set it in TopDocs. If start == 0,
+    // it means the largest element is already in results, use its score as
+    // maxScore. Otherwise pop everything else, until the largest element is
+    // extracted and use its score as maxScore.
+    float maxScore = Float.NaN;
+    if (start == 0) {
+      maxScore = results[0].score;
+    } else {
+      for (int i = pq.size(); i > 1; i--) {
+        pq.pop();
+      }
+      maxScore = pq.pop().score;
+    }
+
+    return new TopDocs(totalHits, results, maxScore);
+  }
+
+  /**
+   * The leaf collector of {@link BM25FTopScoreDocCollector}, BM25F bulk
+   * scorers check for it to enable pruning.
+   */
+  final class TopScoreLeafCollector implements LeafCollector {
+
+    private final int docBase;
+    private Scorer scorer;
+
+    TopScoreLeafCollector(int docBase) {
+      this.docBase = docBase;
+    }
+
+    /**
+     * Returns the minimum score a document needs to enter the top hits: a
+     * document with the same score is rejected since it comes after the
+     * documents already collected. -Infinity until the queue is full.
+     */
+    float minCompetitiveScore() {
+      // sentinels have a score of -Infinity
+      return pqTop.score;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+      this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      final float score = scorer.score();
+
+      // This collector cannot handle these scores:
+      assert score != Float.NEGATIVE_INFINITY;
+      assert !Float.isNaN(score);
+
+      totalHits++;
+      if (score <= pqTop.score) {
+        // Since docs are returned in-order (i.e., increasing doc Id), a document
+        // with equal score to pqTop.score cannot compete since HitQueue favors
+        // documents with lower doc Ids. Therefore reject those docs too.
+        return;
+      }
+      pqTop.doc = doc + docBase;
+      pqTop.score = score;
+      pqTop = pq.updateTop();
+    }
+
+  }
+
+}
@@ -0,0 +1,199 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A bounded LRU cache of the number of documents of a segment containing a
+ * term in any of several fields, see
+ * {@link BM25FParameters.DocFreqMode#EXACT_UNION}. The count merges the
+ * postings of the fields, it is computed the first time a term is searched
+ * in a segment and then reused by all the readers sharing the core of the
+ * segment. Like the doc freqs, the counts include the deleted documents.
+ *
+ * There is one cache per segment core, it is dropped when the core is
+ * closed. The cache is safe for concurrent use, a count may be computed
+ * twice by concurrent queries on a miss.
+ */
+final class BM25FUnionDocFreqCache {
+
+  /** the max number of terms cached per segment */
+  static final int DEFAULT_MAX_SIZE = 4096;
+
+  private static final ConcurrentMap<Object, BM25FUnionDocFreqCache> CACHES = new ConcurrentHashMap<>();
+
+  private static final LeafReader.CoreClosedListener REMOVE_ON_CLOSE = new LeafReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      CACHES.remove(ownerCoreCacheKey);
+    }
+  };
+
+  /**
+   * Returns the cache of the core of the given segment.
+   */
+  static BM25FUnionDocFreqCache forReader(LeafReader reader) {
+    final Object key = reader.getCoreCacheKey();
+    BM25FUnionDocFreqCache cache = CACHES.get(key);
+    if (cache == null) {
+      final BM25FUnionDocFreqCache newCache = new BM25FUnionDocFreqCache(DEFAULT_MAX_SIZE);
+      cache = CACHES.putIfAbsent(key, newCache);
+      if (cache == null) {
+        cache = newCache;
+        reader.addCoreClosedListener(REMOVE_ON_CLOSE);
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return true if a cache exists for the core of the given segment, for
+   *         testing
+   */
+  static boolean isCached(LeafReader reader) {
+    return CACHES.containsKey(reader.getCoreCacheKey());
+  }
+
+  private final Map<Key, Integer> docFreqs;
+
+  BM25FUnionDocFreqCache(final int maxSize) {
+    // access ordered, evicts the least recently used term
+    docFreqs = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the number of documents of the segment containing the term in
+   * one of the given fields.
+   *
+   * @param states the states of the term in each field of the segment, null
+   *          for the fields that do not contain the term
+   */
+  int docFreq(LeafReader reader, String[] fields, TermState[] states, BytesRef term)
+      throws IOException {
+    int numFields = 0;
+    int last = -1;
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] != null) {
+        numFields++;
+        last = i;
+      }
+    }
+    if (numFields == 0) {
+      return 0;
+    }
+    if (numFields == 1) {
+      // no need to merge
+      final TermsEnum termsEnum = reader.terms(fields[last]).iterator();
+      termsEnum.seekExact(term, states[last]);
+      return termsEnum.docFreq();
+    }
+    final Key key = new Key(fields, states, term);
+    Integer docFreq;
+    synchronized (docFreqs) {
+      docFreq = docFreqs.get(key);
+    }
+    if (docFreq == null) {
+      // merged out of the lock, the postings may be long
+      docFreq = merge(reader, fields, states, term, numFields);
+      synchronized (docFreqs) {
+        docFreqs.put(key, docFreq);
+      }
+    }
+    return docFreq;
+  }
+
+  private static int merge(LeafReader reader, String[] fields, TermState[] states, BytesRef term,
+      int numFields) throws IOException {
+    final BM25FPostingsQueue queue = new BM25FPostingsQueue(numFields);
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] == null) {
+        continue;
+      }
+      final TermsEnum termsEnum = reader.terms(fields[i]).iterator();
+      termsEnum.seekExact(term, states[i]);
+      final PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+      final BM25FPostings p = new BM25FPostings(postings, null, i, 0, termsEnum.docFreq(), null);
+      p.doc = postings.nextDoc();
+      queue.add(p);
+    }
+    int count = 0;
+    for (int doc = queue.doc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = queue.nextDoc()) {
+      count++;
+    }
+    return count;
+  }
+
+  int size() {
+    synchronized (docFreqs) {
+      return docFreqs.size();
+    }
+  }
+
+  /** the fields containing a term, and the term */
+  private static final class Key {
+    private final String[] fields;
+    private final BytesRef term;
+    private final int hashCode;
+
+    Key(String[] fields, TermState[] states, BytesRef term) {
+      int numFields = 0;
+      for (TermState state : states) {
+        if (state != null) {
+          numFields++;
+        }
+      }
+      this.fields = new String[numFields];
+      numFields = 0;
+      for (int i = 0; i < states.length; i++) {
+        if (states[i] != null) {
+          this.fields[numFields++] = fields[i];
+        }
+      }
+      this.term = BytesRef.deepCopyOf(term);
+      hashCode = 31 * Arrays.hashCode(this.fields) + this.term.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return Arrays.equals(fields, other.fields) && term.equals(other.term);
+    }
+  }
+
+}
@@ -0,0 +1,173 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search.similarities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A bounded LRU cache of the length normalization tables of a
+ * {@link BM25FSimilarity}. A table only depends on the field weight, on the
+ * length normalization parameter of the field and on the average length of
+ * the field in the collection, so all the terms of all the queries on the
+ * same reader share one table per field: a new table is only built when the
+ * parameters change or when a new reader changes the average length.
+ *
+ * The cache is safe for concurrent use, and reports its memory usage.
+ */
+public final class BM25FNormTableCache implements Accountable {
+
+  /** default max number of tables */
+  public static final int DEFAULT_MAX_SIZE = 512;
+
+  // without the array of the table
+  private static final long TABLE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(Table.class)
+      + RamUsageEstimator.shallowSizeOfInstance(Key.class)
+      // map entry
+      + 5 * RamUsageEstimator.NUM_BYTES_OBJECT_REF + RamUsageEstimator.NUM_BYTES_INT;
+
+  /**
+   * A table of field weights divided by the length normalization, for each
+   * norm value.
+   */
+  static final class Table {
+    final float[] cache;
+    /** the max value in cache */
+    final float max;
+
+    Table(float[] cache, float max) {
+      this.cache = cache;
+      this.max = max;
+    }
+  }
+
+  private static final class Key {
+    // the field is part of the key only to avoid collisions between fields
+    // sharing the same parameters, whose tables would be equal anyway
+    private final String field;
+    private final float boost;
+    private final float lengthBoost;
+    private final float avgdl;
+    private final boolean exact;
+
+    Key(String field, float boost, float lengthBoost, float avgdl, boolean exact) {
+      this.field = field;
+      this.boost = boost;
+      this.lengthBoost = lengthBoost;
+      this.avgdl = avgdl;
+      this.exact = exact;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return field.equals(other.field)
+          && exact == other.exact
+          && Float.floatToIntBits(boost) == Float.floatToIntBits(other.boost)
+          && Float.floatToIntBits(lengthBoost) == Float.floatToIntBits(other.lengthBoost)
+          && Float.floatToIntBits(avgdl) == Float.floatToIntBits(other.avgdl);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = field.hashCode();
+      h = 31 * h + Float.floatToIntBits(boost);
+      h = 31 * h + Float.floatToIntBits(lengthBoost);
+      h = 31 * h + Float.floatToIntBits(avgdl);
+      return 31 * h + (exact ? 1 : 0);
+    }
+  }
+
+  private final Map<Key, Table> tables;
+
+  public BM25FNormTableCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize the max number of tables
+   */
+  public BM25FNormTableCache(final int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be > 0, got " + maxSize);
+    }
+    // access ordered, evicts the least recently used table
+    tables = new LinkedHashMap<Key, Table>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Table> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the table of the given field parameters, built with the norm
+   * decoding of <code>similarity</code> on a miss.
+   */
+  Table get(BM25FSimilarity similarity, String field, float boost, float lengthBoost, float avgdl,
+      boolean exact) {
+    final Key key = new Key(field, boost, lengthBoost, avgdl, exact);
+    Table table;
+    synchronized (tables) {
+      table = tables.get(key);
+    }
+    if (table == null) {
+      table = similarity.buildNormTable(boost, lengthBoost, avgdl, exact);
+      synchronized (tables) {
+        tables.put(key, table);
+      }
+    }
+    return table;
+  }
+
+  /**
+   * @return the number of tables in the cache
+   */
+  public int size() {
+    synchronized (tables) {
+      return tables.size();
+    }
+  }
+
+  /** Removes all the tables. */
+  public void clear() {
+    synchronized (tables) {
+      tables.clear();
+    }
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long ramBytesUsed = 0;
+    synchronized (tables) {
+      for (Table table : tables.values()) {
+        ramBytesUsed += TABLE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(table.cache);
+      }
+    }
+    return ramBytesUsed;
+  }
+
+  @Override
+  public String toString() {
+    return "BM25FNormTableCache(size=" + size() + ", ramBytesUsed=" + ramBytesUsed() + ")";
+  }
+
+}
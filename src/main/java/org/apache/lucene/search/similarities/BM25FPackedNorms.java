@@ -0,0 +1,316 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search.similarities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+
+/**
+ * Packs the encoded lengths of several BM25F fields in numeric doc values,
+ * {@link #FIELDS_PER_LONG} fields per value, so that scoring a document
+ * over all the BM25F fields reads a single value instead of one norm per
+ * field.
+ *
+ * The packed lengths are added to the documents at index time, next to the
+ * regular norms:
+ *
+ * <pre>
+ * for (NumericDocValuesField field : BM25FPackedNorms.createFields(similarity, params.getFields(), doc, analyzer)) {
+ *   doc.add(field);
+ * }
+ * writer.addDocument(doc);
+ * </pre>
+ *
+ * BM25F queries use them automatically in the segments where they exist,
+ * so they must be added to all the documents: a document without packed
+ * lengths in such a segment would be scored as if its fields were empty.
+ * The lengths are encoded like the norms of {@link BM25FSimilarity}, without
+ * index time boosts; the packed norms are ignored when the similarity uses
+ * {@link BM25FSimilarity#setExactFieldLengths(boolean) exact lengths}.
+ *
+ * {@link #createFields(BM25FSimilarity, String[], Document, Analyzer)}
+ * analyzes the fields of the document to count their tokens, and the index
+ * writer analyzes them again, so the analysis cost of the BM25F fields is
+ * doubled at index time. The lengths cannot be taken from the
+ * {@link org.apache.lucene.index.FieldInvertState} of the norms, which is
+ * only complete after the doc values of the document are written. Callers
+ * that already know the lengths, e.g. from their own analysis pipeline,
+ * should use {@link #createFields(BM25FSimilarity, String[], int[])}.
+ *
+ * The doc values fields packing the BM25F fields are resolved once per
+ * segment core and set of fields.
+ */
+public final class BM25FPackedNorms {
+
+  /**
+   * The prefix of the names of the doc values fields, the name of a field is
+   * the prefix followed by the names of the packed fields, separated by
+   * commas.
+   */
+  public static final String FIELD_PREFIX = "_bm25f_norms:";
+
+  /** The number of fields packed in a value. */
+  public static final int FIELDS_PER_LONG = 8;
+
+  private static final char SEPARATOR = ',';
+
+  // the packed columns of every set of fields searched in a segment, per core
+  private static final ConcurrentMap<Object, ConcurrentMap<List<String>, Columns>> SEGMENTS =
+      new ConcurrentHashMap<>();
+
+  private static final LeafReader.CoreClosedListener REMOVE_ON_CLOSE = new LeafReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      SEGMENTS.remove(ownerCoreCacheKey);
+    }
+  };
+
+  private BM25FPackedNorms() {
+    // no instance
+  }
+
+  /**
+   * Returns the doc values fields packing the lengths of the given fields.
+   *
+   * @param similarity the similarity used at index time
+   * @param fields the names of the BM25F fields
+   * @param lengths the number of tokens of each field, 0 if the document does
+   *          not contain the field
+   * @throws IllegalArgumentException if a field name contains a comma
+   */
+  public static List<NumericDocValuesField> createFields(BM25FSimilarity similarity,
+      String[] fields, int[] lengths) {
+    if (fields.length != lengths.length) {
+      throw new IllegalArgumentException("got " + fields.length + " fields but "
+          + lengths.length + " lengths");
+    }
+    final List<NumericDocValuesField> result = new ArrayList<>();
+    for (int start = 0; start < fields.length; start += FIELDS_PER_LONG) {
+      final int end = Math.min(fields.length, start + FIELDS_PER_LONG);
+      long value = 0;
+      for (int i = start; i < end; i++) {
+        final long norm = lengths[i] == 0 ? 0 : similarity.encodeNormValue(1, lengths[i]) & 0xFF;
+        value |= norm << (8 * (i - start));
+      }
+      result.add(new NumericDocValuesField(columnName(fields, start, end), value));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the doc values fields packing the lengths of the given fields of
+   * <code>doc</code>, counting the tokens produced by <code>analyzer</code>
+   * like the index writer does. The fields are analyzed once more by the
+   * index writer.
+   */
+  public static List<NumericDocValuesField> createFields(BM25FSimilarity similarity,
+      String[] fields, Document doc, Analyzer analyzer) throws IOException {
+    final int[] lengths = new int[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      for (IndexableField field : doc.getFields(fields[i])) {
+        if (field.fieldType().tokenized()) {
+          lengths[i] += length(similarity, field, analyzer);
+        } else if (field.stringValue() != null) {
+          lengths[i]++;
+        }
+      }
+    }
+    return createFields(similarity, fields, lengths);
+  }
+
+  private static int length(BM25FSimilarity similarity, IndexableField field, Analyzer analyzer)
+      throws IOException {
+    int length = 0;
+    try (TokenStream stream = field.tokenStream(analyzer, null)) {
+      final PositionIncrementAttribute posIncr = stream.addAttribute(PositionIncrementAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        if (!similarity.getDiscountOverlaps() || posIncr.getPositionIncrement() != 0) {
+          length++;
+        }
+      }
+      stream.end();
+    }
+    return length;
+  }
+
+  private static String columnName(String[] fields, int start, int end) {
+    final StringBuilder name = new StringBuilder(FIELD_PREFIX);
+    for (int i = start; i < end; i++) {
+      if (fields[i].indexOf(SEPARATOR) >= 0) {
+        throw new IllegalArgumentException("field names must not contain '"
+            + SEPARATOR + "', got: " + fields[i]);
+      }
+      if (i > start) {
+        name.append(SEPARATOR);
+      }
+      name.append(fields[i]);
+    }
+    return name.toString();
+  }
+
+  /**
+   * Returns the norms of the given fields read from the packed lengths of
+   * the segment, aligned with <code>fields</code>, null for the fields whose
+   * lengths are not packed. The norms of the fields packed in the same value
+   * share their reads: getting the norms of all the fields of a document
+   * reads a single value.
+   *
+   * @return null if no field is packed
+   */
+  public static NumericDocValues[] normValues(LeafReader reader, String[] fields) throws IOException {
+    final Columns columns = columns(reader, fields);
+    if (columns.names == null) {
+      return null;
+    }
+    final NumericDocValues[] norms = new NumericDocValues[fields.length];
+    final PackedColumn[] packed = new PackedColumn[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      final String name = columns.names[i];
+      if (name == null) {
+        continue;
+      }
+      // the fields of the same column share its reads
+      for (int j = 0; j < i && packed[i] == null; j++) {
+        if (name.equals(columns.names[j])) {
+          packed[i] = packed[j];
+        }
+      }
+      if (packed[i] == null) {
+        packed[i] = new PackedColumn(reader.getNumericDocValues(name));
+      }
+      norms[i] = new PackedNorms(packed[i], columns.slots[i]);
+    }
+    return norms;
+  }
+
+  /**
+   * Returns the columns packing the given fields in the segment. The field
+   * infos of a segment are only scanned the first time a set of fields is
+   * searched in the segment, the result is then reused by all the readers
+   * sharing the core of the segment.
+   */
+  private static Columns columns(LeafReader reader, String[] fields) {
+    final Object key = reader.getCoreCacheKey();
+    ConcurrentMap<List<String>, Columns> segment = SEGMENTS.get(key);
+    if (segment == null) {
+      final ConcurrentMap<List<String>, Columns> newSegment = new ConcurrentHashMap<>();
+      segment = SEGMENTS.putIfAbsent(key, newSegment);
+      if (segment == null) {
+        segment = newSegment;
+        reader.addCoreClosedListener(REMOVE_ON_CLOSE);
+      }
+    }
+    Columns columns = segment.get(Arrays.asList(fields));
+    if (columns == null) {
+      columns = resolve(reader, fields);
+      segment.putIfAbsent(Arrays.asList(fields.clone()), columns);
+    }
+    return columns;
+  }
+
+  private static Columns resolve(LeafReader reader, String[] fields) {
+    String[] names = null;
+    int[] slots = null;
+    for (FieldInfo info : reader.getFieldInfos()) {
+      if (!info.name.startsWith(FIELD_PREFIX)) {
+        continue;
+      }
+      final String[] packed = info.name.substring(FIELD_PREFIX.length()).split(String.valueOf(SEPARATOR));
+      for (int slot = 0; slot < packed.length; slot++) {
+        for (int i = 0; i < fields.length; i++) {
+          if (fields[i].equals(packed[slot]) && (names == null || names[i] == null)) {
+            if (names == null) {
+              names = new String[fields.length];
+              slots = new int[fields.length];
+            }
+            names[i] = info.name;
+            slots[i] = slot;
+          }
+        }
+      }
+    }
+    return new Columns(names, slots);
+  }
+
+  /**
+   * The doc values fields packing a set of fields in a segment.
+   */
+  private static final class Columns {
+    // the column of every field, null for the fields that are not packed, or
+    // null if no field is packed
+    final String[] names;
+    // the position of every field in its column
+    final int[] slots;
+
+    Columns(String[] names, int[] slots) {
+      this.names = names;
+      this.slots = slots;
+    }
+  }
+
+  /**
+   * A doc values column, caching the value of the last doc.
+   */
+  private static final class PackedColumn {
+    private final NumericDocValues values;
+    private int doc = -1;
+    private long value;
+
+    PackedColumn(NumericDocValues values) {
+      this.values = values;
+    }
+
+    long get(int doc) {
+      if (doc != this.doc) {
+        value = values.get(doc);
+        this.doc = doc;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * The norms of one of the fields of a column.
+   */
+  private static final class PackedNorms extends NumericDocValues {
+    private final PackedColumn column;
+    private final int shift;
+
+    PackedNorms(PackedColumn column, int slot) {
+      this.column = column;
+      this.shift = 8 * slot;
+    }
+
+    @Override
+    public long get(int docID) {
+      return (column.get(docID) >>> shift) & 0xFF;
+    }
+  }
+
+}
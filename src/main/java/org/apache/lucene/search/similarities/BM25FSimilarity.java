@@ -18,6 +18,7 @@ package org.apache.lucene.search.similarities;
 import java.io.IOException;
 import java.util.Map;
 
+import org.apache.lucene.search.BM25FCompiledParameters;
 import org.apache.lucene.search.BM25FParameters;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.LeafReaderContext;
@@ -42,48 +43,70 @@ public class BM25FSimilarity extends Similarity {
 //	private static final Logger logger = LoggerFactory
 //			.getLogger(BM25FSimilarity.class);
 
-	BM25FParameters params;
-	Map<String, Float> boosts;
-	Map<String, Float> lengthBoosts;
-	float k1;
+	volatile BM25FParameters params;
+	volatile BM25FCompiledParameters compiled;
+	private final BM25FNormTableCache normTables = new BM25FNormTableCache();
 
 	public BM25FSimilarity() {
 		// logger.info("no defaults");
-		params = new BM25FParameters();
-		boosts = params.getFieldWeights();
-		lengthBoosts = params.getFieldLengthBoosts();
-		k1 = params.getK1();
+		this(new BM25FParameters());
 	}
 
 	public void setBM25FParams(BM25FParameters bm25fparams) {
 		params = bm25fparams;
-
-		boosts = params.getFieldWeights();
-		lengthBoosts = params.getFieldLengthBoosts();
-		k1 = params.getK1();
+		compiled = params.compile();
 	}
 
 	public String[] getFields() {
-		return params.getFields();
+		return compiled.fields();
 	}
 
 	public BM25FSimilarity(BM25FParameters params) {
 		// logger.info("defaults");
-		this.params = params;
-		boosts = params.getFieldWeights();
-		lengthBoosts = params.getFieldLengthBoosts();
-		k1 = params.getK1();
+		setBM25FParams(params);
 	}
 
 	public BM25FSimilarity(float k1, Map<String, Float> boosts,
 			Map<String, Float> lengthBoosts) {
-		this.k1 = k1;
-		this.boosts = boosts;
-		this.lengthBoosts = lengthBoosts;
+		final BM25FParameters params = new BM25FParameters();
+		for (Map.Entry<String, Float> boost : boosts.entrySet()) {
+			final Float lengthBoost = lengthBoosts.get(boost.getKey());
+			params.addFieldParams(boost.getKey(), lengthBoost == null ? 1 : lengthBoost, boost.getValue());
+		}
+		params.setK1(k1);
+		setBM25FParams(params);
+	}
+
+	// Default true, volatile since the similarity is shared by the threads
+	// of the searcher
+	protected volatile boolean discountOverlaps = true;
+
+	/**
+	 * Lengths up to this value are normalized with a precomputed table when
+	 * exact field lengths are used.
+	 */
+	public static final int EXACT_LENGTH_TABLE_SIZE = 1024;
+
+	// Default false
+	protected volatile boolean exactFieldLengths = false;
+
+	/** @see #setExactFieldLengths */
+	public boolean getExactFieldLengths() {
+		return exactFieldLengths;
 	}
 
-	// Default true
-	protected boolean discountOverlaps = true;
+	/**
+	 * Determines whether the norms store the exact number of tokens of the
+	 * fields instead of the lossy one byte encoding of
+	 * {@link #encodeNormValue(float, int)}. The norms format packs the values
+	 * of a segment in as few bits as possible, so exact lengths usually cost
+	 * one or two bytes per document and field. Index time boosts are ignored
+	 * with exact lengths. The same value must be used at index and search
+	 * time. By default this is false.
+	 */
+	public void setExactFieldLengths(boolean v) {
+		exactFieldLengths = v;
+	}
 
 	/** @see #setDiscountOverlaps */
 	public boolean getDiscountOverlaps() {
@@ -133,56 +156,119 @@ public class BM25FSimilarity extends Similarity {
 		return NORM_TABLE[b & 0xFF];
 	}
 
-//	@Override
-//	public final void computeNorm(FieldInvertState state, Norm norm) {
-//		final int numTerms = discountOverlaps ? state.getLength()
-//				- state.getNumOverlap() : state.getLength();
-//		norm.setByte(encodeNormValue(state.getBoost(), numTerms));
-//	}
+	@Override
+	public final long computeNorm(FieldInvertState state) {
+		final int numTerms = discountOverlaps ? state.getLength()
+				- state.getNumOverlap() : state.getLength();
+		if (exactFieldLengths) {
+			return numTerms;
+		}
+		return encodeNormValue(state.getBoost(), numTerms);
+	}
 
 	@Override
 	public final SimScorer simScorer(SimWeight weight,
 			LeafReaderContext context) throws IOException {
 		final BM25FSimWeight w = (BM25FSimWeight) weight;
+		return simScorer(w, context.reader().getNormValues(w.field));
 
-		return new BM25FSimScorer(w, context.reader().getNormValues(w.field));
+	}
 
+	/**
+	 * Returns a scorer reading the norms of the field from the given doc
+	 * values instead of the norms of the segment, see {@link BM25FPackedNorms}.
+	 */
+	public SimScorer simScorer(SimWeight weight, NumericDocValues norms) {
+		final BM25FSimWeight w = (BM25FSimWeight) weight;
+		if (w.exactLengths && norms != null) {
+			return new BM25FExactLengthSimScorer(w, norms);
+		}
+		return new BM25FSimScorer(w, norms);
 	}
 
 	
   @Override
   public SimWeight computeWeight(CollectionStatistics collectionStats, TermStatistics... termStats) {
+	  return computeWeight(compiled, collectionStats, termStats);
+  }
+
+  /**
+   * Computes the weight of a field with the given parameters instead of the
+   * parameters of this similarity. BM25F queries use it to score with their
+   * own parameters, so that a single searcher can run queries with different
+   * parameters concurrently.
+   */
+  public SimWeight computeWeight(BM25FCompiledParameters compiled,
+		  CollectionStatistics collectionStats, TermStatistics... termStats) {
+	  return computeWeight(compiled, compiled.ordinal(collectionStats.field()), collectionStats, termStats);
+  }
+
+  /**
+   * Computes the weight of the field with the given ordinal in the
+   * parameters, -1 if the field is not a BM25F field: the weights of the
+   * queries resolve the ordinals of their fields once.
+   */
+  public SimWeight computeWeight(BM25FCompiledParameters compiled, int ord,
+		  CollectionStatistics collectionStats, TermStatistics... termStats) {
 	  // TODO Auto-generated method stub
 //	  final Explanation idf = termStats.length == 1 ? idfExplain(collectionStats,
 //				termStats[0]) : idfExplain(collectionStats, termStats);
 //
 	  float idf = idf(termStats[0].docFreq(), collectionStats.docCount());
-	  boosts = params.getFieldWeights();
-	  lengthBoosts = params.getFieldLengthBoosts();
-	  k1 = params.getK1();
 
 	  final String field = collectionStats.field();
 	  final float avgdl = avgFieldLength(collectionStats);
 
 	  // ignoring query boost, using bm25f query boost
 	  float boost = 1;
-	  if (boosts.containsKey(field)) {
-		  boost = boosts.get(field);
-	  }
 	  float lengthBoost = 1;
-	  if (lengthBoosts.containsKey(field)) {
-		  lengthBoost = lengthBoosts.get(field);
+	  if (ord >= 0) {
+		  boost = compiled.weight(ord);
+		  lengthBoost = compiled.lengthBoost(ord);
 	  }
 
-	  // compute freq-independent part of bm25 equation across all norm values
-	  float cache[] = new float[256];
+	  final boolean exact = exactFieldLengths;
+	  final BM25FNormTableCache.Table table = normTables.get(this, field, boost, lengthBoost, avgdl, exact);
+	  return new BM25FSimWeight(field, idf, boost, lengthBoost, avgdl, table.cache, table.max, compiled.k1(), exact);
+
+  }
+
+  /**
+   * Computes the freq-independent part of the bm25f equation across all norm
+   * values, field weight included, so that scoring a posting is a single
+   * lookup. With exact lengths, the table covers the lengths lower than
+   * {@link #EXACT_LENGTH_TABLE_SIZE}, and its max also bounds the longer
+   * fields.
+   */
+  BM25FNormTableCache.Table buildNormTable(float boost, float lengthBoost, float avgdl, boolean exact) {
+	  float cache[] = new float[exact ? EXACT_LENGTH_TABLE_SIZE : 256];
+	  // fields without norms are weighted by boost
+	  float maxCache = boost;
 	  for (int i = 0; i < cache.length; i++) {
-		  cache[i] = ((1 - lengthBoost) + lengthBoost * decodeNormValue((byte) i) / avgdl);
-//			   System.out.println("cache " + i + "\t" + cache[i]);
+		  final float length = exact ? i : decodeNormValue((byte) i);
+		  cache[i] = boost / ((1 - lengthBoost) + lengthBoost * length / avgdl);
+		  maxCache = Math.max(maxCache, cache[i]);
 	  }
+	  return new BM25FNormTableCache.Table(cache, maxCache);
+  }
 
-	  return new BM25FSimWeight(field, idf, boost, avgdl, null, k1);
+  /**
+   * @return the field weight divided by the length normalization of a field
+   *         with the given exact length
+   */
+  static float exactLengthNorm(BM25FSimWeight stats, long length) {
+	  if (length < stats.cache.length) {
+		  return stats.cache[(int) length];
+	  }
+	  return stats.queryBoost / ((1 - stats.lengthBoost) + stats.lengthBoost * length / stats.avgdl);
+  }
 
+  /**
+   * @return the cache of the length normalization tables shared by the
+   *         weights of this similarity
+   */
+  public BM25FNormTableCache getNormTableCache() {
+	  return normTables;
   }
 
 
@@ -232,25 +318,19 @@ public class BM25FSimilarity extends Similarity {
 	 * @return the saturation parameter.
 	 */
 	public float getK1() {
-		return k1;
+		return compiled.k1();
 	}
 
 	public class BM25FSimScorer extends SimScorer {
 
 		private final BM25FSimWeight stats;
 		private final NumericDocValues norms;
-		private final Map<String, Float> bParams;
-		private final Map<String, Float> boosts;
+		private final float[] cache;
 
-		BM25FSimScorer(BM25FSimWeight stats, NumericDocValues norms)
-				throws IOException {
+		BM25FSimScorer(BM25FSimWeight stats, NumericDocValues norms) {
 
 			this.stats = stats;
-			bParams = params.getFieldLengthBoosts();
-			boosts = params.getFieldWeights();
-
-			// this.cache = stats.cache;
-
+			this.cache = stats.cache;
 			this.norms = norms;
 
 		}
@@ -263,16 +343,11 @@ public class BM25FSimilarity extends Similarity {
 
 		@Override
 		public float score(int doc, float freq) {
-			String field = stats.getField();
-
-			float fieldBoost = params.getBoost(field);
-			float fieldLengthBoost = params.getLengthBoost(field);
-			float fieldLength = decodeNormValue((byte)norms.get(doc));
-			float fieldAverageLength = stats.avgdl;
-
-			float nominator = freq * fieldBoost;
-			float denominator = ((1 - fieldLengthBoost) + fieldLengthBoost * (fieldLength/ fieldAverageLength));
-			return nominator / denominator;
+			if (norms == null) {
+				// field without norms, no length normalization
+				return freq * stats.queryBoost;
+			}
+			return freq * cache[(byte) norms.get(doc) & 0xFF];
 		}
 
 
@@ -293,33 +368,85 @@ public class BM25FSimilarity extends Similarity {
   
 	}
 
-	public class BM25FSimWeight extends SimWeight {
+	/**
+	 * Scores the fields whose norms are exact lengths, see
+	 * {@link BM25FSimilarity#setExactFieldLengths(boolean)}.
+	 */
+	public class BM25FExactLengthSimScorer extends SimScorer {
+
+		private final BM25FSimWeight stats;
+		private final NumericDocValues norms;
+		private final float[] cache;
+
+		BM25FExactLengthSimScorer(BM25FSimWeight stats, NumericDocValues norms) {
+			this.stats = stats;
+			this.cache = stats.cache;
+			this.norms = norms;
+		}
+
+		@Override
+		public Explanation explain(int doc, Explanation freq) {
+			return explainScore(doc, freq, stats, norms);
+		}
+
+		@Override
+		public float score(int doc, float freq) {
+			final long length = norms.get(doc);
+			if (length < cache.length) {
+				return freq * cache[(int) length];
+			}
+			return freq * exactLengthNorm(stats, length);
+		}
 
-		String field;
-		float idf;
-		float queryBoost;
-		float avgdl;
-		float cache[];
-		float k1;
+		@Override
+		public float computeSlopFactor(int distance) {
+			return sloppyFreq(distance);
+		}
 
-		float topLevelBoost;
+		@Override
+		public float computePayloadFactor(int doc, int start, int end, BytesRef payload) {
+			return scorePayload(doc, start, end, payload);
+		}
+
+	}
 
-		BM25FParameters params;
+	public class BM25FSimWeight extends SimWeight {
+
+		final String field;
+		final float idf;
+		final float queryBoost;
+		final float lengthBoost;
+		final float avgdl;
+		/** field weight divided by the length normalization, for each norm value */
+		final float cache[];
+		/** the max value in cache */
+		final float maxCache;
+		final float k1;
+		/** true if the norms are exact lengths, and cache is indexed by length */
+		final boolean exactLengths;
 
 		/**
 		 * @param field
 		 * @param idf
-		 * @param queryBoost
+		 * @param queryBoost the weight of the field
+		 * @param lengthBoost the length normalization parameter (b) of the field
 		 * @param avgdl
+		 * @param cache the field weight normalized by length, for each norm value
+		 * @param maxCache the max value in cache
 		 * @param k1
+		 * @param exactLengths true if the norms are exact lengths
 		 */
-		public BM25FSimWeight(String field, float idf, float queryBoost, float avgdl, float cache[], float k1) {
+		public BM25FSimWeight(String field, float idf, float queryBoost, float lengthBoost,
+				float avgdl, float cache[], float maxCache, float k1, boolean exactLengths) {
 			this.field = field;
 			this.idf = idf;
 			this.queryBoost = queryBoost;
+			this.lengthBoost = lengthBoost;
 			this.avgdl = avgdl;
 			this.cache = cache;
+			this.maxCache = maxCache;
 			this.k1 = k1;
+			this.exactLengths = exactLengths;
 
 		}
 
@@ -343,13 +470,16 @@ public class BM25FSimilarity extends Similarity {
 			return field;
 		}
 
+		/**
+		 * @return an upper bound of the field score of a posting with the given
+		 *         frequency, whatever the length of the document
+		 */
+		public float maxScore(float freq) {
+			return freq * maxCache;
+		}
+
 	}
 
-  @Override
-  public long computeNorm(FieldInvertState arg0) {
-    // TODO Auto-generated method stub
-    return 0;
-  }
 
 
 
@@ -357,9 +487,20 @@ public class BM25FSimilarity extends Similarity {
 	private Explanation explainScore(int doc, Explanation freqExplain, BM25FSimWeight stats, NumericDocValues norms) {
 		String field = stats.getField();
 		float freq = freqExplain.getValue();
-		float fieldWeight = params.getBoost(field);
-		float fieldLengthWeight = params.getLengthBoost(field);
-		float fieldLength = decodeNormValue((byte)norms.get(doc));
+		float fieldWeight = stats.queryBoost;
+		float fieldLengthWeight = stats.lengthBoost;
+		float fieldLength;
+		float score;
+		if (norms == null) {
+			fieldLength = stats.avgdl;
+			score = freq * fieldWeight;
+		} else if (stats.exactLengths) {
+			fieldLength = norms.get(doc);
+			score = freq * exactLengthNorm(stats, norms.get(doc));
+		} else {
+			fieldLength = decodeNormValue((byte) norms.get(doc));
+			score = freq * stats.cache[(byte) norms.get(doc) & 0xFF];
+		}
 		float fieldAverageLength = stats.avgdl;
 
 		Explanation boostExplain = Explanation.match(fieldWeight,"Field Boost:"+field);
@@ -373,7 +514,7 @@ public class BM25FSimilarity extends Similarity {
 		Explanation boostLengthRatio = Explanation.match(lengthRatio.getValue() * lenghtBoostExplain.getValue(), "Product of",lenghtBoostExplain, lengthRatio );
 		Explanation denomExplain = Explanation.match(oneMinusBc.getValue() + boostLengthRatio.getValue(), "Sum of",oneMinusBc, boostLengthRatio);
 
-		Explanation finalScore = Explanation.match(explainNumerator.getValue() / denomExplain.getValue() , "Division of" , explainNumerator, denomExplain);
+		Explanation finalScore = Explanation.match(score, "Division of" , explainNumerator, denomExplain);
 
 		return  finalScore;
 
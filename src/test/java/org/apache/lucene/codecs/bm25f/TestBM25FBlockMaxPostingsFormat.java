@@ -0,0 +1,116 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.codecs.bm25f;
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FBlockMaxPostingsFormat extends LuceneTestCase {
+
+  private static IndexWriterConfig newConfig() {
+    final PostingsFormat blockMax = new BM25FBlockMaxPostingsFormat();
+    final IndexWriterConfig config = newIndexWriterConfig();
+    config.setCodec(new Lucene62Codec() {
+      @Override
+      public PostingsFormat getPostingsFormatForField(String field) {
+        return blockMax;
+      }
+    });
+    return config;
+  }
+
+  @Test
+  public void testBlockMaxes() throws IOException {
+    try (Directory dir = newDirectory()) {
+      try (IndexWriter writer = new IndexWriter(dir, newConfig())) {
+        final int numDocs = atLeast(1000);
+        for (int i = 0; i < numDocs; i++) {
+          final Document doc = new Document();
+          final StringBuilder text = new StringBuilder();
+          final int length = random().nextInt(10);
+          for (int j = 0; j < length; j++) {
+            text.append((char) ('a' + random().nextInt(1 + random().nextInt(10)))).append(' ');
+          }
+          doc.add(newTextField("body", text.toString(), random().nextBoolean() ? Store.YES : Store.NO));
+          writer.addDocument(doc);
+          if (random().nextInt(200) == 0) {
+            writer.commit();
+          }
+        }
+        if (random().nextBoolean()) {
+          writer.forceMerge(1);
+        }
+      }
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        for (LeafReaderContext context : reader.leaves()) {
+          final Terms terms = context.reader().terms("body");
+          if (terms == null) {
+            continue;
+          }
+          assertTrue(terms instanceof BM25FBlockMaxTerms);
+          final TermsEnum termsEnum = terms.iterator();
+          for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            assertBlockMaxes(((BM25FBlockMaxTerms) terms).blockMaxes(term),
+                termsEnum.postings(null, PostingsEnum.FREQS));
+          }
+        }
+      }
+    }
+  }
+
+  private static void assertBlockMaxes(BM25FBlockMaxes blockMaxes, PostingsEnum postings)
+      throws IOException {
+    int block = 0;
+    int count = 0;
+    int maxFreq = 0;
+    int doc = postings.nextDoc();
+    while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+      maxFreq = Math.max(maxFreq, postings.freq());
+      count++;
+      final int next = postings.nextDoc();
+      if (count % BM25FBlockMaxPostingsFormat.BLOCK_SIZE == 0 || next == DocIdSetIterator.NO_MORE_DOCS) {
+        if (count <= BM25FBlockMaxPostingsFormat.BLOCK_SIZE && next == DocIdSetIterator.NO_MORE_DOCS) {
+          // short postings lists have no block maxima
+          assertNull(blockMaxes);
+          return;
+        }
+        assertNotNull(blockMaxes);
+        assertEquals(doc, blockMaxes.lastDoc(block));
+        assertEquals(maxFreq, blockMaxes.maxFreq(block));
+        assertEquals(block, blockMaxes.advance(0, doc));
+        block++;
+        maxFreq = 0;
+      }
+      doc = next;
+    }
+    assertEquals(block, blockMaxes.size());
+  }
+
+}
@@ -0,0 +1,311 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.bm25f.BM25FBlockMaxPostingsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBM25FBooleanQuery extends LuceneTestCase {
+
+  static final String[] TERMS = { "leonardo", "da", "vinci", "video", "image", "mona", "lisa", "gioconda" };
+
+  Directory dir;
+  IndexReader reader;
+  IndexSearcher searcher;
+
+  final BM25FParameters bm25FParameters = new BM25FParameters();
+
+  @Before
+  public void setupIndex() throws IOException {
+    bm25FParameters.setK1(1.2f);
+    bm25FParameters.addFieldParams("title", 0.5f, 3);
+    bm25FParameters.addFieldParams("author", 0.75f, 2);
+    bm25FParameters.addFieldParams("description", 0.75f, 1);
+    bm25FParameters.setMainField("title");
+
+    dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir);
+    addDocuments(writer);
+    reader = writer.getReader();
+    writer.close();
+    searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+  }
+
+  private void addDocuments(RandomIndexWriter writer) throws IOException {
+    final int numDocs = atLeast(300);
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Store.YES));
+      for (String field : bm25FParameters.getFields()) {
+        final StringBuilder text = new StringBuilder();
+        final int length = random().nextInt(6);
+        for (int j = 0; j < length; j++) {
+          // skewed, so that some terms are much more frequent than others
+          text.append(TERMS[random().nextInt(1 + random().nextInt(TERMS.length))]).append(' ');
+        }
+        doc.add(newTextField(field, text.toString(), Store.NO));
+      }
+      writer.addDocument(doc);
+    }
+  }
+
+  @After
+  public void closeStuff() throws IOException {
+    reader.close();
+    dir.close();
+  }
+
+  private static Occur randomOccur() {
+    switch (random().nextInt(5)) {
+      case 0:
+        return Occur.MUST;
+      case 1:
+        return Occur.MUST_NOT;
+      default:
+        return Occur.SHOULD;
+    }
+  }
+
+  /**
+   * Checks that the BM25F boolean query matches the same documents, with the
+   * same scores, as a boolean query over BM25F term queries.
+   */
+  private void assertSameResults(BM25FBooleanQuery query, BooleanQuery expected) throws IOException {
+    final TopDocs actualDocs = searcher.search(query, reader.maxDoc());
+    final TopDocs expectedDocs = searcher.search(expected, reader.maxDoc());
+    assertEquals(query.toString(), expectedDocs.totalHits, actualDocs.totalHits);
+    for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+      final ScoreDoc e = expectedDocs.scoreDocs[i];
+      final ScoreDoc a = actualDocs.scoreDocs[i];
+      assertEquals(query.toString(), e.score, a.score, 0.0001f);
+      assertEquals(a.score, searcher.explain(query, a.doc).getValue(), 0.0001f);
+    }
+  }
+
+  @Test
+  public void testRandomQueries() throws IOException {
+    final int iters = atLeast(30);
+    for (int iter = 0; iter < iters; iter++) {
+      final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+      final BooleanQuery.Builder expected = new BooleanQuery.Builder();
+      expected.setDisableCoord(true);
+      final int numClauses = 1 + random().nextInt(5);
+      int numShould = 0;
+      for (int i = 0; i < numClauses; i++) {
+        final Term term = new Term("title", TERMS[random().nextInt(TERMS.length)]);
+        final Occur occur = randomOccur();
+        if (occur == Occur.SHOULD) {
+          numShould++;
+        }
+        query.add(term, occur);
+        expected.add(new BM25FBooleanTermQuery(term, bm25FParameters), occur);
+      }
+      if (numShould > 0 && random().nextBoolean()) {
+        final int msm = 1 + random().nextInt(numShould);
+        query.setMinimumNumberShouldMatch(msm);
+        expected.setMinimumNumberShouldMatch(msm);
+      }
+      assertSameResults(query, expected.build());
+    }
+  }
+
+  @Test
+  public void testConjunctions() throws IOException {
+    final int iters = atLeast(30);
+    for (int iter = 0; iter < iters; iter++) {
+      final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+      final BooleanQuery.Builder expected = new BooleanQuery.Builder();
+      expected.setDisableCoord(true);
+      final int numClauses = 1 + random().nextInt(4);
+      for (int i = 0; i < numClauses; i++) {
+        final Term term = new Term("title", TERMS[random().nextInt(TERMS.length)]);
+        // at least one required clause
+        final Occur occur = i > 0 && random().nextInt(4) == 0 ? Occur.MUST_NOT : Occur.MUST;
+        query.add(term, occur);
+        expected.add(new BM25FBooleanTermQuery(term, bm25FParameters), occur);
+      }
+      assertSameResults(query, expected.build());
+    }
+  }
+
+  @Test
+  public void testMinShouldMatch() throws IOException {
+    final int iters = atLeast(30);
+    for (int iter = 0; iter < iters; iter++) {
+      final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+      final BooleanQuery.Builder expected = new BooleanQuery.Builder();
+      expected.setDisableCoord(true);
+      final int numShould = 2 + random().nextInt(TERMS.length - 1);
+      for (int i = 0; i < numShould; i++) {
+        final Term term = new Term("title", TERMS[random().nextInt(TERMS.length)]);
+        query.add(term, Occur.SHOULD);
+        expected.add(new BM25FBooleanTermQuery(term, bm25FParameters), Occur.SHOULD);
+      }
+      if (random().nextBoolean()) {
+        final Term term = new Term("title", TERMS[random().nextInt(TERMS.length)]);
+        final Occur occur = random().nextBoolean() ? Occur.MUST : Occur.MUST_NOT;
+        query.add(term, occur);
+        expected.add(new BM25FBooleanTermQuery(term, bm25FParameters), occur);
+      }
+      final int msm = 2 + random().nextInt(numShould - 1);
+      query.setMinimumNumberShouldMatch(msm);
+      expected.setMinimumNumberShouldMatch(msm);
+      assertSameResults(query, expected.build());
+    }
+  }
+
+  @Test
+  public void testTopScoreDocCollector() throws IOException {
+    // a searcher that does not wrap collectors, so that pruning is enabled
+    final IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    assertSameTopDocs(searcher);
+  }
+
+  @Test
+  public void testBlockMaxTopScoreDocCollector() throws IOException {
+    final PostingsFormat blockMax = new BM25FBlockMaxPostingsFormat();
+    final IndexWriterConfig config = newIndexWriterConfig();
+    config.setCodec(new Lucene62Codec() {
+      @Override
+      public PostingsFormat getPostingsFormatForField(String field) {
+        return blockMax;
+      }
+    });
+    try (Directory dir = newDirectory()) {
+      final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+      // enough docs for several blocks per term
+      for (int i = 0; i < 3; i++) {
+        addDocuments(writer);
+      }
+      try (IndexReader reader = writer.getReader()) {
+        writer.close();
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+        assertSameTopDocs(searcher);
+      }
+    }
+  }
+
+  /**
+   * Checks that pruning does not change the top docs of disjunctions.
+   */
+  private void assertSameTopDocs(IndexSearcher searcher) throws IOException {
+    final int iters = atLeast(30);
+    for (int iter = 0; iter < iters; iter++) {
+      final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+      final int numClauses = 1 + random().nextInt(6);
+      for (int i = 0; i < numClauses; i++) {
+        final Term term = new Term("title", TERMS[random().nextInt(TERMS.length)]);
+        query.add(term, random().nextInt(6) == 0 ? Occur.MUST_NOT : Occur.SHOULD);
+      }
+      final int numHits = 1 + random().nextInt(20);
+      final TopDocs expected = searcher.search(query, numHits);
+      final BM25FTopScoreDocCollector collector = BM25FTopScoreDocCollector.create(numHits);
+      searcher.search(query, collector);
+      final TopDocs actual = collector.topDocs();
+      assertTrue(actual.totalHits <= expected.totalHits);
+      assertEquals(query.toString(), expected.scoreDocs.length, actual.scoreDocs.length);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(query.toString(), expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+        assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testExplain() throws IOException {
+    final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+    query.add(new Term("title", "leonardo"), Occur.SHOULD);
+    query.add(new Term("title", "vinci"), Occur.SHOULD);
+    query.add(new Term("title", "video"), Occur.MUST_NOT);
+    final TopDocs docs = searcher.search(query, 10);
+    for (ScoreDoc doc : docs.scoreDocs) {
+      final Explanation explanation = searcher.explain(query, doc.doc);
+      assertTrue(explanation.isMatch());
+      assertEquals(doc.score, explanation.getValue(), 0.0001f);
+    }
+  }
+
+  @Test
+  public void testTermQueryClauses() throws IOException {
+    final Term term = new Term("title", "vinci");
+    final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+    query.add(new BM25FBooleanTermQuery(term, bm25FParameters.clone()), Occur.SHOULD);
+    final BM25FBooleanQuery expected = new BM25FBooleanQuery(bm25FParameters);
+    expected.add(term, Occur.SHOULD);
+    final TopDocs expectedDocs = searcher.search(expected, reader.maxDoc());
+    final TopDocs actualDocs = searcher.search(query, reader.maxDoc());
+    assertEquals(expectedDocs.totalHits, actualDocs.totalHits);
+    for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+      assertEquals(expectedDocs.scoreDocs[i].score, actualDocs.scoreDocs[i].score, 0.0001f);
+    }
+
+    // the filter of a clause would be ignored
+    final Query filter = new TermQuery(new Term("id", "0"));
+    try {
+      query.add(new BM25FBooleanTermQuery(term, bm25FParameters, filter), Occur.SHOULD);
+      fail("filtered clauses are not supported");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // so would the parameters of a clause
+    final BM25FParameters other = bm25FParameters.clone();
+    other.setK1(2f);
+    try {
+      query.add(new BM25FBooleanTermQuery(term, other), Occur.SHOULD);
+      fail("clauses with other parameters are not supported");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(1, query.clauses().size());
+
+    // the parameters of the query changed since the clause was added
+    final BM25FParameters params = bm25FParameters.clone();
+    final BM25FBooleanQuery changed = new BM25FBooleanQuery(params);
+    changed.add(new BM25FBooleanTermQuery(term, bm25FParameters), Occur.SHOULD);
+    params.setK1(2f);
+    try {
+      searcher.search(changed, 10);
+      fail("clauses with other parameters are not supported");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOnlyTermQueries() {
+    final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+    query.add(new PrefixQuery(new Term("title", "leo")), Occur.SHOULD);
+  }
+
+}
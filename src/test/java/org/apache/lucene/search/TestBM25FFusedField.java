@@ -0,0 +1,153 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FFusedField extends LuceneTestCase {
+
+  private static final String[] WORDS = { "leonardo", "vinci", "gioconda", "milano" };
+
+  @Test
+  public void testFusedField() throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    final int numFields = 1 + random().nextInt(12);
+    for (int i = 0; i < numFields; i++) {
+      params.addFieldParams("field" + i, random().nextFloat(), 1 + random().nextInt(3));
+    }
+    params.setMainField("field0");
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    final String[] fields = params.getFields();
+
+    final Analyzer analyzer = new MockAnalyzer(random());
+    final Directory dir = newDirectory();
+    final Directory fusedDir = newDirectory();
+    final IndexWriterConfig config = newIndexWriterConfig(analyzer);
+    config.setSimilarity(similarity);
+    final IndexWriterConfig fusedConfig = newIndexWriterConfig(analyzer);
+    fusedConfig.setSimilarity(similarity);
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    final RandomIndexWriter fusedWriter = new RandomIndexWriter(random(), fusedDir, fusedConfig);
+    final int numDocs = atLeast(100);
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      for (String field : fields) {
+        if (random().nextInt(5) == 0) {
+          continue;
+        }
+        final StringBuilder text = new StringBuilder();
+        final int length = 1 + random().nextInt(30);
+        for (int j = 0; j < length; j++) {
+          text.append(WORDS[random().nextInt(WORDS.length)]).append(' ');
+        }
+        doc.add(newTextField(field, text.toString(), Store.NO));
+      }
+      writer.addDocument(doc);
+      doc.add(BM25FFusedField.createField(fields, doc, analyzer));
+      fusedWriter.addDocument(doc);
+    }
+    final IndexReader reader = writer.getReader();
+    final IndexReader fusedReader = fusedWriter.getReader();
+    writer.close();
+    fusedWriter.close();
+
+    for (LeafReaderContext context : fusedReader.leaves()) {
+      final BM25FFusedField.Fused fused = BM25FFusedField.fusedField(context.reader(), fields);
+      assertEquals(BM25FFusedField.fieldName(fields), fused.name);
+      // resolved once per segment
+      assertSame(fused, BM25FFusedField.fusedField(context.reader(), fields.clone()));
+    }
+
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(similarity);
+    final IndexSearcher fusedSearcher = newSearcher(fusedReader);
+    fusedSearcher.setSimilarity(similarity);
+    for (String word : WORDS) {
+      // the main field matches every field, the others only their own field
+      final String field = fields[random().nextInt(fields.length)];
+      for (Term term : new Term[] { new Term("field0", word), new Term(field, word) }) {
+        final BM25FBooleanTermQuery query = new BM25FBooleanTermQuery(term, params);
+        final TopDocs expected = searcher.search(query, numDocs);
+        final TopDocs actual = fusedSearcher.search(query, numDocs);
+        assertEquals(expected.totalHits, actual.totalHits);
+        // doc ids may differ between the indexes, scores are sorted
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+          assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+        }
+        // explanations merge the postings of the fields
+        for (ScoreDoc scoreDoc : actual.scoreDocs) {
+          assertEquals(scoreDoc.score, fusedSearcher.explain(query, scoreDoc.doc).getValue(), 0.0001f);
+        }
+      }
+    }
+    reader.close();
+    fusedReader.close();
+    dir.close();
+    fusedDir.close();
+  }
+
+  @Test
+  public void testBinaryTerms() throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("code", 1, 1).addFieldParams("title", 1, 1);
+    params.setMainField("code");
+    final String[] fields = params.getFields();
+    // not valid UTF-8
+    final BytesRef binary = new BytesRef(new byte[] { (byte) 0xFF, 0x00, (byte) 0xC3 });
+    final Analyzer analyzer = new MockAnalyzer(random());
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, newIndexWriterConfig(analyzer));
+    final Document doc = new Document();
+    doc.add(new Field("code", binary, StringField.TYPE_NOT_STORED));
+    doc.add(newTextField("title", "leonardo", Store.NO));
+    doc.add(BM25FFusedField.createField(fields, doc, analyzer));
+    writer.addDocument(doc);
+    final IndexReader reader = writer.getReader();
+    writer.close();
+
+    final LeafReaderContext context = reader.leaves().get(0);
+    final TermsEnum termsEnum = context.reader().terms(BM25FFusedField.fieldName(fields)).iterator();
+    assertTrue(termsEnum.seekExact(binary));
+    assertTrue(termsEnum.seekExact(new BytesRef("leonardo")));
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(params));
+    assertEquals(1, searcher.search(new BM25FBooleanTermQuery(new Term("code", binary), params), 1).totalHits);
+    reader.close();
+    dir.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSeparatorInFieldName() {
+    BM25FFusedField.fieldName(new String[] { "a,b" });
+  }
+
+}
@@ -0,0 +1,201 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FImpactField extends LuceneTestCase {
+
+  private static final String[] WORDS = { "leonardo", "vinci", "gioconda", "milano" };
+
+  @Test
+  public void testImpactField() throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    final int numFields = 1 + random().nextInt(6);
+    for (int i = 0; i < numFields; i++) {
+      params.addFieldParams("field" + i, random().nextFloat(), 1 + random().nextInt(3));
+    }
+    params.setMainField("field0");
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    similarity.setExactFieldLengths(true);
+    final String[] fields = params.getFields();
+
+    // the texts are generated first, to declare the average lengths
+    final int numDocs = atLeast(100);
+    final String[][] texts = new String[numDocs][fields.length];
+    final float[] avgFieldLengths = new float[fields.length];
+    final int[] docCounts = new int[fields.length];
+    for (int i = 0; i < numDocs; i++) {
+      for (int f = 0; f < fields.length; f++) {
+        if (random().nextInt(5) == 0) {
+          continue;
+        }
+        final StringBuilder text = new StringBuilder();
+        final int length = 1 + random().nextInt(30);
+        for (int j = 0; j < length; j++) {
+          text.append(WORDS[random().nextInt(WORDS.length)]).append(' ');
+        }
+        texts[i][f] = text.toString();
+        avgFieldLengths[f] += length;
+        docCounts[f]++;
+      }
+    }
+    for (int f = 0; f < fields.length; f++) {
+      avgFieldLengths[f] = docCounts[f] == 0 ? 1 : avgFieldLengths[f] / docCounts[f];
+    }
+
+    final Analyzer analyzer = new MockAnalyzer(random());
+    final Directory dir = newDirectory();
+    final Directory impactDir = newDirectory();
+    final IndexWriterConfig config = newIndexWriterConfig(analyzer);
+    config.setSimilarity(similarity);
+    final IndexWriterConfig impactConfig = newIndexWriterConfig(analyzer);
+    impactConfig.setSimilarity(similarity);
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    final RandomIndexWriter impactWriter = new RandomIndexWriter(random(), impactDir, impactConfig);
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Store.YES));
+      for (int f = 0; f < fields.length; f++) {
+        if (texts[i][f] != null) {
+          doc.add(newTextField(fields[f], texts[i][f], Store.NO));
+        }
+      }
+      writer.addDocument(doc);
+      doc.add(BM25FImpactField.createField(params, avgFieldLengths, doc, analyzer));
+      impactWriter.addDocument(doc);
+    }
+    final IndexReader reader = writer.getReader();
+    final IndexReader impactReader = impactWriter.getReader();
+    writer.close();
+    impactWriter.close();
+
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(similarity);
+    final IndexSearcher impactSearcher = newSearcher(impactReader);
+    impactSearcher.setSimilarity(similarity);
+
+    // k1 is not part of the profile
+    final BM25FParameters otherK1 = params.clone();
+    otherK1.setK1(0.5f + random().nextFloat());
+    // another weight falls back to the postings of the fields
+    final BM25FParameters otherProfile = params.clone();
+    otherProfile.setFieldWeights(weights(params, 0.5f));
+    for (String word : WORDS) {
+      final Term term = new Term("field0", word);
+      for (BM25FParameters p : new BM25FParameters[] { params, otherK1 }) {
+        final BM25FBooleanTermQuery query = new BM25FBooleanTermQuery(term, p);
+        final Map<String, Float> expected = scores(searcher, query, numDocs);
+        final Map<String, Float> actual = scores(impactSearcher, query, numDocs);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Float> e : expected.entrySet()) {
+          // the impacts are quantized with 8 bits of mantissa
+          assertEquals(e.getValue(), actual.get(e.getKey()), e.getValue() * 0.01f);
+        }
+      }
+      final BM25FBooleanTermQuery query = new BM25FBooleanTermQuery(term, otherProfile);
+      assertEquals(scores(searcher, query, numDocs), scores(impactSearcher, query, numDocs));
+    }
+
+    // explanations read the impacts
+    final BM25FBooleanTermQuery query = new BM25FBooleanTermQuery(new Term("field0", WORDS[0]), params);
+    for (ScoreDoc scoreDoc : impactSearcher.search(query, numDocs).scoreDocs) {
+      assertEquals(scoreDoc.score, impactSearcher.explain(query, scoreDoc.doc).getValue(), 0.0001f);
+    }
+    reader.close();
+    impactReader.close();
+    dir.close();
+    impactDir.close();
+  }
+
+  @Test
+  public void testQuantization() {
+    float previous = 0;
+    for (float impact = 0.01f; impact < 1000; impact *= 1.1f) {
+      final float decoded = BM25FImpactField.decode(BM25FImpactField.encode(impact));
+      assertTrue(decoded <= impact);
+      assertEquals(impact, decoded, impact / 256);
+      assertTrue(decoded >= previous);
+      previous = decoded;
+    }
+  }
+
+  @Test
+  public void testBinaryTerms() throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("code", 1, 1);
+    // not valid UTF-8
+    final BytesRef binary = new BytesRef(new byte[] { (byte) 0xFF, 0x00, (byte) 0xC3 });
+    final Analyzer analyzer = new MockAnalyzer(random());
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, newIndexWriterConfig(analyzer));
+    final Document doc = new Document();
+    doc.add(new Field("code", binary, StringField.TYPE_NOT_STORED));
+    doc.add(BM25FImpactField.createField(params, new float[] { 1 }, doc, analyzer));
+    writer.addDocument(doc);
+    final IndexReader reader = writer.getReader();
+    writer.close();
+    final TermsEnum termsEnum = reader.leaves().get(0).reader()
+        .terms(BM25FImpactField.fieldName(params)).iterator();
+    assertTrue(termsEnum.seekExact(binary));
+    reader.close();
+    dir.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongNumberOfLengths() throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 2);
+    params.addFieldParams("body", 0.75f, 1);
+    BM25FImpactField.createField(params, new float[] { 10 }, new Document(), new MockAnalyzer(random()));
+  }
+
+  private static Float[] weights(BM25FParameters params, float delta) {
+    final String[] fields = params.getFields();
+    final Float[] weights = new Float[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      weights[i] = params.getBoost(fields[i]) + delta;
+    }
+    return weights;
+  }
+
+  private static Map<String, Float> scores(IndexSearcher searcher, Query query, int numDocs)
+      throws IOException {
+    final Map<String, Float> scores = new HashMap<>();
+    for (ScoreDoc scoreDoc : searcher.search(query, numDocs).scoreDocs) {
+      scores.put(searcher.doc(scoreDoc.doc).get("id"), scoreDoc.score);
+    }
+    return scores;
+  }
+
+}
@@ -0,0 +1,237 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.similarities.BM25FSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.NamedThreadFactory;
+import org.apache.lucene.util.TestUtil;
+import org.junit.Test;
+
+public class TestBM25FIndexSearcher extends LuceneTestCase {
+
+  private static final String[] TERMS = { "leonardo", "da", "vinci", "video", "image", "mona", "lisa" };
+
+  private final BM25FParameters bm25FParameters = new BM25FParameters();
+
+  /**
+   * Indexes random documents in segments of very different sizes.
+   */
+  private IndexReader randomIndex(Directory dir) throws IOException {
+    return randomIndex(dir, false);
+  }
+
+  /**
+   * @param forceMerge true to merge all the documents in a single segment
+   */
+  private IndexReader randomIndex(Directory dir, boolean forceMerge) throws IOException {
+    bm25FParameters.addFieldParams("title", 0.5f, 3);
+    bm25FParameters.addFieldParams("author", 0.75f, 2);
+    bm25FParameters.addFieldParams("description", 0.9f, 1);
+    bm25FParameters.setMainField("title");
+    final IndexWriterConfig config = newIndexWriterConfig();
+    config.setMergePolicy(forceMerge ? newLogMergePolicy() : NoMergePolicy.INSTANCE);
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    final int numSegments = 2 + random().nextInt(8);
+    int id = 0;
+    for (int s = 0; s < numSegments; s++) {
+      // a few huge segments and many small ones
+      final int numDocs = random().nextInt(4) == 0 ? atLeast(300) : 1 + random().nextInt(30);
+      for (int i = 0; i < numDocs; i++) {
+        final Document doc = new Document();
+        doc.add(newStringField("id", Integer.toString(id++), Store.YES));
+        for (String field : bm25FParameters.getFields()) {
+          final StringBuilder text = new StringBuilder();
+          final int length = random().nextInt(6);
+          for (int j = 0; j < length; j++) {
+            text.append(TERMS[random().nextInt(TERMS.length)]).append(' ');
+          }
+          doc.add(newTextField(field, text.toString(), Store.NO));
+        }
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+    if (forceMerge) {
+      writer.forceMerge(1);
+    }
+    final IndexReader reader = writer.getReader();
+    writer.close();
+    return reader;
+  }
+
+  private List<Query> queries() {
+    final List<Query> queries = new ArrayList<>();
+    for (String text : TERMS) {
+      queries.add(new BM25FBooleanTermQuery(new Term("title", text), bm25FParameters));
+    }
+    queries.add(new TermQuery(new Term("author", "vinci")));
+    for (BooleanClause.Occur occur : new BooleanClause.Occur[] { BooleanClause.Occur.SHOULD,
+        BooleanClause.Occur.MUST }) {
+      final BM25FBooleanQuery query = new BM25FBooleanQuery(bm25FParameters);
+      query.add(new Term("title", "mona"), occur);
+      query.add(new Term("title", "lisa"), occur);
+      query.add(new Term("title", "vinci"), BooleanClause.Occur.SHOULD);
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  @Test
+  public void testSameResultsAsSerial() throws IOException {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir);
+    final BM25FSimilarity similarity = new BM25FSimilarity(bm25FParameters);
+    final IndexSearcher serial = new IndexSearcher(reader);
+    serial.setSimilarity(similarity);
+    final ExecutorService executor = Executors.newFixedThreadPool(1 + random().nextInt(4),
+        new NamedThreadFactory("TestBM25FIndexSearcher"));
+    try {
+      final BM25FIndexSearcher parallel = new BM25FIndexSearcher(reader, executor,
+          1 + random().nextInt(5));
+      parallel.setSimilarity(similarity);
+      final int numHits = 1 + random().nextInt(50);
+      for (int iter = 0; iter < 3; iter++) {
+        for (Query query : queries()) {
+          assertSameHits(serial.search(query, numHits), parallel.search(query, numHits));
+          final BM25FTopScoreDocCollector collector = BM25FTopScoreDocCollector.create(numHits);
+          serial.search(query, collector);
+          assertSameHits(collector.topDocs(),
+              parallel.search(query, BM25FTopScoreDocCollector.manager(numHits)));
+          assertEquals(serial.count(query), parallel.count(query));
+        }
+      }
+    } finally {
+      TestUtil.shutdownExecutorService(executor);
+    }
+    reader.close();
+    dir.close();
+  }
+
+  private static void assertSameHits(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+    }
+  }
+
+  @Test
+  public void testSlices() throws IOException {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir);
+    final int maxSlices = 1 + random().nextInt(4);
+    final BM25FIndexSearcher searcher = new BM25FIndexSearcher(reader, null, maxSlices);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final Query query = new BM25FBooleanTermQuery(new Term("title", "mona"), bm25FParameters);
+    final Weight weight = searcher.createNormalizedWeight(query, true);
+    final List<List<BM25FIndexSearcher.LeafRange>> slices = searcher.slices(weight);
+    assertTrue(slices.size() <= maxSlices);
+    // consecutive whole segments, in order
+    final List<LeafReaderContext> leaves = new ArrayList<>();
+    for (List<BM25FIndexSearcher.LeafRange> slice : slices) {
+      assertFalse(slice.isEmpty());
+      for (BM25FIndexSearcher.LeafRange range : slice) {
+        assertEquals(0, range.min);
+        assertEquals(range.context.reader().maxDoc(), range.max);
+        leaves.add(range.context);
+      }
+    }
+    assertEquals(reader.leaves(), leaves);
+    for (LeafReaderContext context : leaves) {
+      long docFreq = 0;
+      for (String field : bm25FParameters.getFields()) {
+        docFreq += context.reader().docFreq(new Term(field, "mona"));
+      }
+      assertEquals(docFreq, BM25FIndexSearcher.cost(weight, context));
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testRanges() throws IOException {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir, true);
+    assertEquals(1, reader.leaves().size());
+    final int maxDoc = reader.maxDoc();
+    final BM25FSimilarity similarity = new BM25FSimilarity(bm25FParameters);
+    final IndexSearcher serial = new IndexSearcher(reader);
+    serial.setSimilarity(similarity);
+    final ExecutorService executor = Executors.newFixedThreadPool(1 + random().nextInt(4),
+        new NamedThreadFactory("TestBM25FIndexSearcher"));
+    try {
+      final int maxSlices = 2 + random().nextInt(6);
+      final BM25FIndexSearcher parallel = new BM25FIndexSearcher(reader, executor, maxSlices);
+      parallel.setSimilarity(similarity);
+      parallel.setMinDocsPerRange(1 + random().nextInt(Math.max(1, maxDoc / 4)));
+
+      // the only segment is split in consecutive ranges
+      final Query mona = new BM25FBooleanTermQuery(new Term("title", "mona"), bm25FParameters);
+      final List<List<BM25FIndexSearcher.LeafRange>> slices = parallel.slices(
+          parallel.createNormalizedWeight(mona, true));
+      assertTrue(slices.size() <= maxSlices);
+      int next = 0;
+      for (List<BM25FIndexSearcher.LeafRange> slice : slices) {
+        assertEquals(1, slice.size());
+        assertEquals(next, slice.get(0).min);
+        assertTrue(slice.get(0).max > slice.get(0).min);
+        assertTrue(slice.get(0).max - slice.get(0).min >= parallel.getMinDocsPerRange()
+            || slices.size() == 1);
+        next = slice.get(0).max;
+      }
+      assertEquals(maxDoc, next);
+
+      final int numHits = 1 + random().nextInt(50);
+      for (Query query : queries()) {
+        assertSameHits(serial.search(query, numHits), parallel.search(query, numHits));
+        final BM25FTopScoreDocCollector collector = BM25FTopScoreDocCollector.create(numHits);
+        serial.search(query, collector);
+        assertSameHits(collector.topDocs(),
+            parallel.search(query, BM25FTopScoreDocCollector.manager(numHits)));
+        assertEquals(serial.count(query), parallel.count(query));
+      }
+    } finally {
+      TestUtil.shutdownExecutorService(executor);
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testPartition() {
+    assertArrayEquals(new int[] { 0, 2, 3 }, BM25FIndexSearcher.partition(new long[] { 1, 1, 100, 1, 1, 1 }, 3));
+    assertArrayEquals(new int[] { 0, 2 }, BM25FIndexSearcher.partition(new long[] { 5, 5, 5, 5 }, 2));
+    // never more slices than costs
+    assertArrayEquals(new int[] { 0, 1 }, BM25FIndexSearcher.partition(new long[] { 7, 3 }, 8));
+    assertArrayEquals(new int[] { 0 }, BM25FIndexSearcher.partition(new long[] { 0, 0, 0 }, 4));
+    assertArrayEquals(new int[0], BM25FIndexSearcher.partition(new long[0], 4));
+  }
+
+}
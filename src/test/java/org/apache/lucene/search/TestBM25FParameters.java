@@ -0,0 +1,97 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FParameters extends LuceneTestCase {
+
+  @Test
+  public void testCompile() {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 3);
+    params.addFieldParams("body", 0.75f, 1);
+    params.setK1(1.2f);
+    params.setMainField("title");
+
+    final BM25FCompiledParameters compiled = params.compile();
+    assertEquals(2, compiled.size());
+    assertEquals(0, compiled.ordinal("title"));
+    assertEquals(1, compiled.ordinal("body"));
+    assertEquals(-1, compiled.ordinal("author"));
+    assertEquals(3f, compiled.weight(0), 0f);
+    assertEquals(0.75f, compiled.lengthBoost(1), 0f);
+    assertEquals(1.2f, compiled.k1(), 0f);
+    assertEquals("title", compiled.mainField());
+    assertEquals(BM25FParameters.DocFreqMode.MAIN_FIELD, compiled.docFreqMode());
+    // the public fields are a copy, the internal ones are shared
+    assertArrayEquals(new String[] { "title", "body" }, compiled.fields());
+    compiled.fields()[0] = "other";
+    assertEquals("title", compiled.field(0));
+    assertSame(compiled.fieldArray(), compiled.fieldArray());
+
+    // cached until a parameter changes
+    assertSame(compiled, params.compile());
+    params.setK1(2);
+    final BM25FCompiledParameters recompiled = params.compile();
+    assertNotSame(compiled, recompiled);
+    assertEquals(2f, recompiled.k1(), 0f);
+    assertEquals(1.2f, compiled.k1(), 0f);
+  }
+
+  @Test
+  public void testEquals() {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 3);
+    params.setMainField("title");
+    final BM25FParameters clone = params.clone();
+    assertEquals(params, clone);
+    assertEquals(params.hashCode(), clone.hashCode());
+    assertEquals(params.compile(), clone.compile());
+
+    clone.addFieldParams("body", 0.75f, 1);
+    assertFalse(params.equals(clone));
+    assertEquals(1, params.compile().size());
+
+    final BM25FParameters otherMode = params.clone();
+    otherMode.setDocFreqMode(BM25FParameters.DocFreqMode.EXACT_UNION);
+    assertFalse(params.equals(otherMode));
+    assertFalse(params.compile().equals(otherMode.compile()));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testPublicMainField() {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 3);
+    params.setMainField("title");
+    final BM25FCompiledParameters compiled = params.compile();
+    // assigned directly, without dropping the compiled parameters
+    params.mainField = "all";
+    assertEquals("all", params.getMainField());
+    assertEquals("all", params.compile().mainField());
+    assertFalse(compiled.equals(params.compile()));
+    assertSame(params.compile(), params.compile());
+  }
+
+  @Test
+  public void testNoMainField() {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 3);
+    assertNull(params.compile().mainField());
+    // the idf cannot be read from a main field
+    assertEquals(BM25FParameters.DocFreqMode.MAX_FIELD, params.compile().docFreqMode());
+  }
+}
@@ -16,18 +16,28 @@
 package org.apache.lucene.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.RandomIndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.search.similarities.BM25FSimilarity;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.LuceneTestCase;
 import org.junit.After;
 import org.junit.Before;
@@ -113,6 +123,519 @@ public class TestBM25FQuery extends LuceneTestCase {
   }
 
 
+  /**
+   * Indexes <code>numDocs</code> random documents with the fields of the bm25f
+   * parameters and returns a reader over them.
+   */
+  private IndexReader randomIndex(Directory dir, int numDocs) throws IOException {
+    return randomIndex(dir, numDocs, false);
+  }
+
+  private IndexReader randomIndex(Directory dir, int numDocs, boolean deletes) throws IOException {
+    final String[] terms = { "leonardo", "da", "vinci", "video", "image", "mona", "lisa" };
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir);
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Store.YES));
+      for (String field : bm25FParameters.getFields()) {
+        final StringBuilder text = new StringBuilder();
+        final int length = random().nextInt(5);
+        for (int j = 0; j < length; j++) {
+          text.append(terms[random().nextInt(terms.length)]).append(' ');
+        }
+        doc.add(newTextField(field, text.toString(), Store.NO));
+      }
+      writer.addDocument(doc);
+    }
+    if (deletes) {
+      for (int i = 0; i < numDocs / 5; i++) {
+        writer.deleteDocuments(new Term("id", Integer.toString(random().nextInt(numDocs))));
+      }
+    }
+    final IndexReader reader = writer.getReader();
+    writer.close();
+    return reader;
+  }
+
+  @Test
+  public void testAdvance() throws IOException {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir, atLeast(500));
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final Query q = new BM25FBooleanTermQuery(new Term("title", "vinci"), bm25FParameters);
+    final Weight weight = searcher.createNormalizedWeight(q, true);
+    for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+      final Scorer all = weight.scorer(context);
+      final Scorer skipping = weight.scorer(context);
+      if (all == null) {
+        assertNull(skipping);
+        continue;
+      }
+      int prev = -1;
+      for (int doc = all.iterator().nextDoc(); doc != NO_MORE_DOCS; doc = all.iterator().nextDoc()) {
+        if (random().nextInt(3) == 0) {
+          final int target = prev + 1 + random().nextInt(doc - prev);
+          assertEquals(doc, skipping.iterator().advance(target));
+          assertEquals(all.score(), skipping.score(), 0f);
+          assertEquals(all.freq(), skipping.freq());
+        }
+        prev = doc;
+      }
+      assertEquals(NO_MORE_DOCS, skipping.iterator().advance(prev + 1));
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testBulkScorer() throws IOException {
+    final Directory dir = newDirectory();
+    // several windows per segment
+    final IndexReader reader = randomIndex(dir, atLeast(3 * BM25FTermBulkScorer.WINDOW_SIZE));
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final Query q = new BM25FBooleanTermQuery(new Term("title", "lisa"), bm25FParameters);
+    final Weight weight = searcher.createNormalizedWeight(q, true);
+    for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+      final BulkScorer bulkScorer = weight.bulkScorer(context);
+      final Scorer scorer = weight.scorer(context);
+      if (scorer == null) {
+        assertNull(bulkScorer);
+        continue;
+      }
+      final int maxDoc = context.reader().maxDoc();
+      final FixedBitSet acceptDocs = new FixedBitSet(maxDoc);
+      for (int i = 0; i < maxDoc; i++) {
+        if (random().nextInt(10) != 0) {
+          acceptDocs.set(i);
+        }
+      }
+      final List<Integer> docs = new ArrayList<>();
+      final List<Float> scores = new ArrayList<>();
+      final LeafCollector collector = new LeafCollector() {
+        private Scorer scorer;
+
+        @Override
+        public void setScorer(Scorer scorer) {
+          this.scorer = scorer;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+          docs.add(doc);
+          scores.add(scorer.score());
+        }
+      };
+      // score in random ranges
+      int min = 0;
+      while (min < maxDoc) {
+        final int max = min + 1 + random().nextInt(BM25FTermBulkScorer.WINDOW_SIZE * 2);
+        min = Math.max(max, bulkScorer.score(collector, acceptDocs, min, max));
+      }
+      int i = 0;
+      for (int doc = scorer.iterator().nextDoc(); doc != NO_MORE_DOCS; doc = scorer.iterator().nextDoc()) {
+        if (acceptDocs.get(doc)) {
+          assertEquals(doc, (int) docs.get(i));
+          assertEquals(scorer.score(), scores.get(i), 0f);
+          i++;
+        }
+      }
+      assertEquals(i, docs.size());
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testConcurrentParameters() throws Exception {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir, atLeast(200));
+    final BM25FParameters[] profiles = new BM25FParameters[4];
+    final TopDocs[] expected = new TopDocs[profiles.length];
+    final Term term = new Term("title", "leonardo");
+    for (int i = 0; i < profiles.length; i++) {
+      profiles[i] = new BM25FParameters();
+      profiles[i].setK1(0.5f + random().nextFloat() * 2);
+      for (String field : bm25FParameters.getFields()) {
+        profiles[i].addFieldParams(field, random().nextFloat(), 0.1f + random().nextFloat() * 5);
+      }
+      profiles[i].setMainField("title");
+      // a searcher per profile
+      final IndexSearcher searcher = newSearcher(reader);
+      searcher.setSimilarity(new BM25FSimilarity(profiles[i]));
+      expected[i] = searcher.search(new BM25FBooleanTermQuery(term, profiles[i]), 10);
+    }
+
+    // a single searcher for all the profiles
+    final IndexSearcher shared = newSearcher(reader);
+    final BM25FSimilarity similarity = new BM25FSimilarity(bm25FParameters);
+    shared.setSimilarity(similarity);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final Thread[] threads = new Thread[profiles.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int profile = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int iter = 0; iter < 20; iter++) {
+              final TopDocs actual = shared.search(new BM25FBooleanTermQuery(term, profiles[profile]), 10);
+              assertEquals(expected[profile].scoreDocs.length, actual.scoreDocs.length);
+              for (int j = 0; j < actual.scoreDocs.length; j++) {
+                assertEquals(expected[profile].scoreDocs[j].doc, actual.scoreDocs[j].doc);
+                assertEquals(expected[profile].scoreDocs[j].score, actual.scoreDocs[j].score, 0f);
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    // the similarity of the searcher is left untouched
+    assertEquals(bm25FParameters.getK1(), similarity.getK1(), 0f);
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testCost() throws IOException {
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir, atLeast(200));
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final Query q = new BM25FBooleanTermQuery(new Term("title", "mona"), bm25FParameters);
+    final Weight weight = searcher.createNormalizedWeight(q, true);
+    for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+      final Scorer scorer = weight.scorer(context);
+      if (scorer == null) {
+        continue;
+      }
+      long docFreq = 0;
+      for (String field : bm25FParameters.getFields()) {
+        docFreq += context.reader().docFreq(new Term(field, "mona"));
+      }
+      assertEquals(docFreq, scorer.iterator().cost());
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testCachedTermStates() throws IOException {
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir,
+        newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE));
+    final String[] terms = { "leonardo", "da", "vinci" };
+    final int numSegments = 2 + random().nextInt(4);
+    for (int s = 0; s < numSegments; s++) {
+      // the term is never in the description, and only in some segments of
+      // the other fields
+      final boolean inTitle = s == 0 || random().nextBoolean();
+      final int numDocs = 1 + random().nextInt(50);
+      for (int i = 0; i < numDocs; i++) {
+        final Document doc = new Document();
+        doc.add(newTextField("title", terms[random().nextInt(inTitle ? 3 : 2)], Store.NO));
+        doc.add(newTextField("author", terms[random().nextInt(3)] + " " + terms[random().nextInt(3)], Store.NO));
+        doc.add(newTextField("description", "video", Store.NO));
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+    final IndexReader reader = writer.getReader();
+    writer.close();
+    // the writer may flush more segments
+    assertTrue(reader.leaves().size() >= numSegments);
+
+    final IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    searcher.setQueryCache(null);
+    final Term term = new Term("title", "vinci");
+    final String[] fields = bm25FParameters.getFields();
+    // the second weight reads the states cached by the first one
+    for (int w = 0; w < 2; w++) {
+      final BM25FBooleanTermQuery.BM25FTermWeight weight = (BM25FBooleanTermQuery.BM25FTermWeight) searcher
+          .createNormalizedWeight(new BM25FBooleanTermQuery(term, bm25FParameters), true);
+      for (LeafReaderContext context : reader.leaves()) {
+        assertTrue(BM25FTermContextCache.isCached(context.reader()));
+        final BM25FPostings[] postings = weight.postings(context, 0);
+        boolean found = false;
+        for (int i = 0; i < fields.length; i++) {
+          final TermsEnum termsEnum = context.reader().terms(fields[i]).iterator();
+          if (!termsEnum.seekExact(term.bytes())) {
+            assertTrue(postings == null || postings[i] == null);
+            continue;
+          }
+          found = true;
+          assertNotNull(postings);
+          assertNotNull(postings[i]);
+          assertEquals(termsEnum.docFreq(), postings[i].cost);
+          assertSamePostings(termsEnum.postings(null, PostingsEnum.FREQS), postings[i].postings);
+        }
+        if (!found) {
+          assertNull(postings);
+        }
+      }
+    }
+    reader.close();
+    dir.close();
+  }
+
+  private static void assertSamePostings(PostingsEnum expected, PostingsEnum actual) throws IOException {
+    for (int doc = expected.nextDoc(); doc != NO_MORE_DOCS; doc = expected.nextDoc()) {
+      assertEquals(doc, actual.nextDoc());
+      assertEquals(expected.freq(), actual.freq());
+    }
+    assertEquals(NO_MORE_DOCS, actual.nextDoc());
+  }
+
+  @Test
+  public void testMatchingOnly() throws IOException {
+    final Directory dir = newDirectory();
+    final int numDocs = atLeast(200);
+    final IndexReader reader = randomIndex(dir, numDocs, random().nextBoolean());
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    for (String field : new String[] { "title", "author" }) {
+      for (String text : new String[] { "mona", "vinci", "missing" }) {
+        final BM25FBooleanTermQuery q = new BM25FBooleanTermQuery(new Term(field, text), bm25FParameters);
+        final TopDocs scored = searcher.search(q, numDocs);
+        assertEquals(scored.totalHits, searcher.count(q));
+        assertEquals(scored.totalHits, q.count(searcher));
+        // the matching only weight matches the same documents
+        final Weight scoring = q.createWeight(searcher, true);
+        final Weight matching = q.createWeight(searcher, false);
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+          final Scorer expected = scoring.scorer(context);
+          final Scorer actual = matching.scorer(context);
+          if (expected == null) {
+            assertNull(actual);
+            continue;
+          }
+          for (int doc = expected.iterator().nextDoc(); doc != NO_MORE_DOCS; doc = expected.iterator().nextDoc()) {
+            assertEquals(doc, actual.iterator().nextDoc());
+          }
+          assertEquals(NO_MORE_DOCS, actual.iterator().nextDoc());
+        }
+      }
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testFilter() throws IOException {
+    final Directory dir = newDirectory();
+    final int numDocs = atLeast(200);
+    final IndexReader reader = randomIndex(dir, numDocs, true);
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final Query filter = new TermQuery(new Term("description", "video"));
+    final BM25FBooleanTermQuery q = new BM25FBooleanTermQuery(new Term("title", "mona"), bm25FParameters);
+    final BooleanQuery.Builder expected = new BooleanQuery.Builder();
+    expected.add(q, BooleanClause.Occur.MUST);
+    expected.add(filter, BooleanClause.Occur.FILTER);
+    final BM25FBooleanTermQuery filtered = new BM25FBooleanTermQuery(new Term("title", "mona"), bm25FParameters, filter);
+    // a copy, the query itself is never modified
+    assertEquals(filtered, q.withFilter(filter));
+    assertNull(q.getFilter());
+    assertEquals(q, filtered.withFilter(null));
+    assertFalse(q.equals(filtered));
+    final TopDocs expectedDocs = searcher.search(expected.build(), numDocs);
+    final TopDocs actualDocs = searcher.search(filtered, numDocs);
+    assertEquals(expectedDocs.totalHits, actualDocs.totalHits);
+    for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+      assertEquals(expectedDocs.scoreDocs[i].doc, actualDocs.scoreDocs[i].doc);
+      assertEquals(expectedDocs.scoreDocs[i].score, actualDocs.scoreDocs[i].score, 0f);
+    }
+    assertEquals(expectedDocs.totalHits, filtered.count(searcher));
+
+    // the scorer only returns the live documents of the filter
+    final BM25FBooleanTermQuery.BM25FTermWeight weight =
+        (BM25FBooleanTermQuery.BM25FTermWeight) q.createWeight(searcher, true);
+    for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+      final int maxDoc = context.reader().maxDoc();
+      final FixedBitSet bits = new FixedBitSet(maxDoc);
+      for (int doc = 0; doc < maxDoc; doc++) {
+        if (random().nextBoolean()) {
+          bits.set(doc);
+        }
+      }
+      final Scorer all = weight.scorer(context);
+      final Scorer scorer = weight.scorer(context, new BitDocIdSet(bits));
+      if (all == null) {
+        assertNull(scorer);
+        continue;
+      }
+      final Bits liveDocs = context.reader().getLiveDocs();
+      for (int doc = all.iterator().nextDoc(); doc != NO_MORE_DOCS; doc = all.iterator().nextDoc()) {
+        assertTrue(liveDocs == null || liveDocs.get(doc));
+        if (bits.get(doc)) {
+          assertEquals(doc, scorer.iterator().nextDoc());
+          assertEquals(all.score(), scorer.score(), 0f);
+        }
+      }
+      assertEquals(NO_MORE_DOCS, scorer.iterator().nextDoc());
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testQueryCache() throws IOException {
+    final Directory dir = newDirectory();
+    final int numDocs = atLeast(200);
+    final IndexReader reader = randomIndex(dir, numDocs);
+    // two profiles searching the term in different fields
+    final BM25FParameters titleAuthor = new BM25FParameters();
+    titleAuthor.addFieldParams("title", 1, 1).addFieldParams("author", 1, 1);
+    titleAuthor.setMainField("title");
+    final BM25FParameters titleDescription = new BM25FParameters();
+    titleDescription.addFieldParams("title", 1, 1).addFieldParams("description", 1, 1);
+    titleDescription.setMainField("title");
+    final Term term = new Term("title", "vinci");
+    final BM25FBooleanTermQuery first = new BM25FBooleanTermQuery(term, titleAuthor);
+    final BM25FBooleanTermQuery second = new BM25FBooleanTermQuery(term, titleDescription);
+    assertFalse(first.equals(second));
+    final BM25FBooleanTermQuery same = new BM25FBooleanTermQuery(term, titleAuthor.clone());
+    assertEquals(first, same);
+    assertEquals(first.hashCode(), same.hashCode());
+
+    final IndexSearcher uncached = new IndexSearcher(reader);
+    uncached.setQueryCache(null);
+    final IndexSearcher cached = new IndexSearcher(reader);
+    final LRUQueryCache cache = new LRUQueryCache(100, 1 << 20, new Predicate<LeafReaderContext>() {
+      @Override
+      public boolean test(LeafReaderContext context) {
+        return true;
+      }
+    });
+    cached.setQueryCache(cache);
+    cached.setQueryCachingPolicy(QueryCachingPolicy.ALWAYS_CACHE);
+    // the matches of a profile are never read from the cache entry of the other
+    for (BM25FBooleanTermQuery q : new BM25FBooleanTermQuery[] { first, second, first, second }) {
+      final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+      builder.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+      builder.add(q, BooleanClause.Occur.FILTER);
+      final Query filtered = builder.build();
+      final TopDocs expected = uncached.search(filtered, numDocs);
+      final TopDocs actual = cached.search(filtered, numDocs);
+      assertEquals(expected.totalHits, actual.totalHits);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      }
+    }
+    assertTrue(cache.getCacheCount() > 0);
+    assertTrue(cache.getHitCount() > 0);
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testDocFreqModes() throws IOException {
+    final Directory deletesDir = newDirectory();
+    // the doc freqs count the deleted documents, the idf does not
+    final IndexReader deletesReader = randomIndex(deletesDir, atLeast(200), true);
+    assertDocFreqModes(deletesReader);
+    deletesReader.close();
+    deletesDir.close();
+
+    final Directory dir = newDirectory();
+    final IndexReader reader = randomIndex(dir, atLeast(200));
+    final IndexSearcher searcher = assertDocFreqModes(reader);
+    // without main field, a term on another field is searched in all the fields
+    final BM25FParameters noMainField = new BM25FParameters();
+    for (String field : bm25FParameters.getFields()) {
+      noMainField.addFieldParams(field, 1, 1);
+    }
+    noMainField.setDocFreqMode(BM25FParameters.DocFreqMode.EXACT_UNION);
+    final BM25FParameters withMainField = noMainField.clone();
+    withMainField.setMainField("title");
+    final TopDocs expected = searcher.search(new BM25FBooleanTermQuery(new Term("title", "mona"), withMainField), 100);
+    final TopDocs actual = searcher.search(new BM25FBooleanTermQuery(new Term("any", "mona"), noMainField), 100);
+    assertEquals(expected.totalHits, actual.totalHits);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+    }
+    reader.close();
+    dir.close();
+  }
+
+  private IndexSearcher assertDocFreqModes(IndexReader reader) throws IOException {
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(new BM25FSimilarity(bm25FParameters));
+    final long numDocs = searcher.getIndexReader().numDocs();
+    for (String text : new String[] { "mona", "vinci", "missing" }) {
+      long max = 0;
+      long sum = 0;
+      for (String field : bm25FParameters.getFields()) {
+        final int df = searcher.getIndexReader().docFreq(new Term(field, text));
+        max = Math.max(max, df);
+        sum += df;
+      }
+      final long unionDocFreq = unionDocFreq(reader, text);
+      final Term term = new Term("title", text);
+      for (BM25FParameters.DocFreqMode mode : BM25FParameters.DocFreqMode.values()) {
+        final BM25FParameters params = bm25FParameters.clone();
+        params.setDocFreqMode(mode);
+        final BM25FBooleanTermQuery.BM25FTermWeight weight = (BM25FBooleanTermQuery.BM25FTermWeight)
+            new BM25FBooleanTermQuery(term, params).createWeight(searcher, true);
+        switch (mode) {
+          case MAIN_FIELD:
+            assertEquals(weight.idf(searcher.getIndexReader().docFreq(term), numDocs), weight.idf, 0f);
+            break;
+          case MAX_FIELD:
+            assertEquals(weight.idf(max, numDocs), weight.idf, 0f);
+            break;
+          case ESTIMATED_UNION:
+            // estimated over the documents of the idf
+            assertTrue(weight.idf <= weight.idf(Math.min(max, numDocs), numDocs));
+            assertTrue(weight.idf >= weight.idf(Math.min(sum, numDocs), numDocs));
+            assertTrue(weight.idf >= weight.idf(numDocs, numDocs));
+            break;
+          case EXACT_UNION:
+            assertEquals(weight.idf(unionDocFreq, numDocs), weight.idf, 0f);
+            break;
+        }
+      }
+    }
+    for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+      assertTrue(BM25FUnionDocFreqCache.isCached(context.reader()));
+    }
+    return searcher;
+  }
+
+  /**
+   * Counts the documents containing the term in any of the BM25F fields,
+   * including the deleted documents like the doc freqs.
+   */
+  private long unionDocFreq(IndexReader reader, String text) throws IOException {
+    long count = 0;
+    for (LeafReaderContext context : reader.leaves()) {
+      final FixedBitSet docs = new FixedBitSet(context.reader().maxDoc());
+      for (String field : bm25FParameters.getFields()) {
+        final PostingsEnum postings = context.reader().postings(new Term(field, text), PostingsEnum.NONE);
+        if (postings == null) {
+          continue;
+        }
+        for (int doc = postings.nextDoc(); doc != NO_MORE_DOCS; doc = postings.nextDoc()) {
+          docs.set(doc);
+        }
+      }
+      count += docs.cardinality();
+    }
+    return count;
+  }
+
   @Test
   public void testExplainMatchScore() throws IOException{
     // we should get an explain of a main score and sub scores per term
@@ -0,0 +1,145 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FTermContextCache extends LuceneTestCase {
+
+  @Test
+  public void testCache() throws IOException {
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir);
+    for (int i = 0; i < 20; i++) {
+      final Document doc = new Document();
+      doc.add(newTextField("title", "leonardo da vinci " + i, Store.NO));
+      writer.addDocument(doc);
+    }
+    final IndexReader reader = writer.getReader();
+
+    final Term term = new Term("title", "vinci");
+    final TermContext termContext = BM25FTermContextCache.termContext(reader.getContext(), term);
+    assertEquals(20, termContext.docFreq());
+    assertEquals(20, termContext.totalTermFreq());
+    assertEquals(0, BM25FTermContextCache.termContext(reader.getContext(), new Term("title", "gioconda")).docFreq());
+    for (LeafReaderContext context : reader.leaves()) {
+      final BM25FTermContextCache cache = BM25FTermContextCache.forReader(context.reader());
+      assertSame(cache, BM25FTermContextCache.forReader(context.reader()));
+      // the states of a segment are read once
+      assertSame(cache.get(context.reader(), term), cache.get(context.reader(), new Term("title", "vinci")));
+      assertSame(termContext.get(context.ord), cache.get(context.reader(), term).state);
+    }
+
+    // a reopened reader shares the caches of its unchanged segments
+    final Document doc = new Document();
+    doc.add(newTextField("title", "leonardo", Store.NO));
+    writer.addDocument(doc);
+    writer.deleteDocuments(new Term("title", "0"));
+    final IndexReader reopened = writer.getReader();
+    writer.close();
+    assertEquals(reopened.docFreq(term), BM25FTermContextCache.termContext(reopened.getContext(), term).docFreq());
+    for (LeafReaderContext context : reopened.leaves()) {
+      for (LeafReaderContext old : reader.leaves()) {
+        if (old.reader().getCoreCacheKey() == context.reader().getCoreCacheKey()) {
+          assertSame(BM25FTermContextCache.forReader(old.reader()),
+              BM25FTermContextCache.forReader(context.reader()));
+        }
+      }
+    }
+
+    // the caches are dropped with the segments
+    final List<LeafReader> leaves = new ArrayList<>();
+    for (LeafReaderContext context : reader.leaves()) {
+      leaves.add(context.reader());
+    }
+    for (LeafReaderContext context : reopened.leaves()) {
+      leaves.add(context.reader());
+    }
+    reader.close();
+    reopened.close();
+    for (LeafReader leaf : leaves) {
+      assertFalse(BM25FTermContextCache.isCached(leaf));
+    }
+    dir.close();
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir);
+    final Document doc = new Document();
+    doc.add(newTextField("title", "leonardo da vinci", Store.NO));
+    writer.addDocument(doc);
+    writer.forceMerge(1);
+    final IndexReader reader = writer.getReader();
+    writer.close();
+
+    final LeafReader leaf = reader.leaves().get(0).reader();
+    // a single stripe of two terms
+    final BM25FTermContextCache cache = new BM25FTermContextCache(2, 1);
+    final BM25FTermContextCache.TermStats leonardo = cache.get(leaf, new Term("title", "leonardo"));
+    final BM25FTermContextCache.TermStats da = cache.get(leaf, new Term("title", "da"));
+    // leonardo is the most recently used
+    assertSame(leonardo, cache.get(leaf, new Term("title", "leonardo")));
+    final BM25FTermContextCache.TermStats vinci = cache.get(leaf, new Term("title", "vinci"));
+    assertEquals(2, cache.size());
+    assertSame(leonardo, cache.get(leaf, new Term("title", "leonardo")));
+    assertSame(vinci, cache.get(leaf, new Term("title", "vinci")));
+    // da was evicted
+    assertNotSame(da, cache.get(leaf, new Term("title", "da")));
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testStripes() throws IOException {
+    final Directory dir = newDirectory();
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir);
+    final int numTerms = atLeast(100);
+    for (int i = 0; i < numTerms; i++) {
+      final Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Store.NO));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    final IndexReader reader = writer.getReader();
+    writer.close();
+
+    final LeafReader leaf = reader.leaves().get(0).reader();
+    final int numStripes = 1 + random().nextInt(8);
+    final BM25FTermContextCache cache = new BM25FTermContextCache(numTerms * numStripes, numStripes);
+    for (int i = 0; i < numTerms; i++) {
+      assertEquals(1, cache.get(leaf, new Term("id", Integer.toString(i))).docFreq);
+    }
+    // every stripe holds its share of the terms, none was evicted
+    assertEquals(numTerms, cache.size());
+    reader.close();
+    dir.close();
+  }
+
+}
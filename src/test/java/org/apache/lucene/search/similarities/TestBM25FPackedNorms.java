@@ -0,0 +1,123 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search.similarities;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BM25FBooleanTermQuery;
+import org.apache.lucene.search.BM25FParameters;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FPackedNorms extends LuceneTestCase {
+
+  @Test
+  public void testPackedNorms() throws IOException {
+    // more fields than fit in a single value
+    final BM25FParameters params = new BM25FParameters();
+    final int numFields = 1 + random().nextInt(2 * BM25FPackedNorms.FIELDS_PER_LONG);
+    for (int i = 0; i < numFields; i++) {
+      params.addFieldParams("field" + i, random().nextFloat(), 1 + random().nextInt(3));
+    }
+    params.setMainField("field0");
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    final String[] fields = params.getFields();
+
+    final Analyzer analyzer = new MockAnalyzer(random());
+    final Directory dir = newDirectory();
+    final Directory packedDir = newDirectory();
+    final IndexWriterConfig config = newIndexWriterConfig(analyzer);
+    config.setSimilarity(similarity);
+    final IndexWriterConfig packedConfig = newIndexWriterConfig(analyzer);
+    packedConfig.setSimilarity(similarity);
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    final RandomIndexWriter packedWriter = new RandomIndexWriter(random(), packedDir, packedConfig);
+    final int numDocs = atLeast(100);
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      for (String field : fields) {
+        if (random().nextInt(5) == 0) {
+          continue;
+        }
+        final StringBuilder text = new StringBuilder();
+        final int length = 1 + random().nextInt(30);
+        for (int j = 0; j < length; j++) {
+          text.append(random().nextBoolean() ? "leonardo " : "vinci ");
+        }
+        doc.add(newTextField(field, text.toString(), Store.NO));
+      }
+      writer.addDocument(doc);
+      for (NumericDocValuesField field : BM25FPackedNorms.createFields(similarity, fields, doc, analyzer)) {
+        doc.add(field);
+      }
+      packedWriter.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    packedWriter.forceMerge(1);
+    final IndexReader reader = writer.getReader();
+    final IndexReader packedReader = packedWriter.getReader();
+    writer.close();
+    packedWriter.close();
+
+    final LeafReaderContext context = packedReader.leaves().get(0);
+    final NumericDocValues[] packedNorms = BM25FPackedNorms.normValues(context.reader(), fields);
+    assertNotNull(packedNorms);
+    for (int i = 0; i < fields.length; i++) {
+      final NumericDocValues norms = context.reader().getNormValues(fields[i]);
+      for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+        assertEquals(norms == null ? 0 : norms.get(doc) & 0xFF, packedNorms[i].get(doc));
+      }
+    }
+    assertNull(BM25FPackedNorms.normValues(reader.leaves().get(0).reader(), fields));
+
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(similarity);
+    final IndexSearcher packedSearcher = newSearcher(packedReader);
+    packedSearcher.setSimilarity(similarity);
+    for (String text : new String[] { "leonardo", "vinci" }) {
+      final BM25FBooleanTermQuery query = new BM25FBooleanTermQuery(new Term("field0", text), params);
+      final TopDocs expected = searcher.search(query, numDocs);
+      final TopDocs actual = packedSearcher.search(query, numDocs);
+      assertEquals(expected.totalHits, actual.totalHits);
+      // doc ids may differ between the indexes, scores are sorted
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+      }
+    }
+    reader.close();
+    packedReader.close();
+    dir.close();
+    packedDir.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSeparatorInFieldName() {
+    BM25FPackedNorms.createFields(new BM25FSimilarity(), new String[] { "a,b" }, new int[] { 1 });
+  }
+
+}
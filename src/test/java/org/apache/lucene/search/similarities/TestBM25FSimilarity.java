@@ -0,0 +1,156 @@
+/**
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.lucene.search.similarities;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BM25FBooleanTermQuery;
+import org.apache.lucene.search.BM25FParameters;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.BM25FSimilarity.BM25FSimWeight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+public class TestBM25FSimilarity extends LuceneTestCase {
+
+  private static BM25FSimWeight weight(BM25FSimilarity similarity, String field, long sumTotalTermFreq) {
+    return (BM25FSimWeight) similarity.computeWeight(
+        new CollectionStatistics(field, 100, 100, sumTotalTermFreq, 200),
+        new TermStatistics(new BytesRef("leonardo"), 10, 20));
+  }
+
+  @Test
+  public void testNormTableCache() {
+    final BM25FParameters params = new BM25FParameters();
+    params.addFieldParams("title", 0.5f, 3);
+    params.addFieldParams("author", 0.5f, 3);
+    params.addFieldParams("description", 0.75f, 1);
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    final BM25FNormTableCache cache = similarity.getNormTableCache();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.ramBytesUsed());
+
+    final BM25FSimWeight title = weight(similarity, "title", 500);
+    assertSame(title.cache, weight(similarity, "title", 500).cache);
+    assertEquals(1, cache.size());
+    assertTrue(cache.ramBytesUsed() > 256 * 4);
+
+    // another field, another average length
+    assertNotSame(title.cache, weight(similarity, "author", 500).cache);
+    assertNotSame(title.cache, weight(similarity, "title", 600).cache);
+    assertEquals(3, cache.size());
+
+    for (int i = 0; i < 256; i++) {
+      final float expected = 3 / (0.5f + 0.5f * similarity.decodeNormValue((byte) i) / 5);
+      assertEquals(expected, title.cache[i], 0f);
+      assertTrue(title.maxCache >= title.cache[i]);
+    }
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEviction() {
+    final BM25FNormTableCache cache = new BM25FNormTableCache(2);
+    final BM25FSimilarity similarity = new BM25FSimilarity();
+    final BM25FNormTableCache.Table a = cache.get(similarity, "a", 1, 0.5f, 10, false);
+    cache.get(similarity, "b", 1, 0.5f, 10, false);
+    cache.get(similarity, "c", 1, 0.5f, 10, false);
+    assertEquals(2, cache.size());
+    assertNotSame(a, cache.get(similarity, "a", 1, 0.5f, 10, false));
+  }
+
+  private void assertLengthNormalization(boolean exact) throws IOException {
+    final BM25FParameters params = new BM25FParameters();
+    params.setK1(1.2f);
+    params.addFieldParams("title", 0.75f, 2);
+    params.setMainField("title");
+    final BM25FSimilarity similarity = new BM25FSimilarity(params);
+    similarity.setExactFieldLengths(exact);
+
+    final Directory dir = newDirectory();
+    final IndexWriterConfig config = newIndexWriterConfig(new MockAnalyzer(random()));
+    config.setSimilarity(similarity);
+    final RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    final int numDocs = atLeast(50);
+    final int[] lengths = new int[numDocs];
+    final int[] freqs = new int[numDocs];
+    long sumLengths = 0;
+    for (int i = 0; i < numDocs; i++) {
+      final StringBuilder text = new StringBuilder("leonardo ");
+      freqs[i] = 1;
+      lengths[i] = 1;
+      // some fields longer than the precomputed table
+      final int length = random().nextInt(10) == 0
+          ? BM25FSimilarity.EXACT_LENGTH_TABLE_SIZE + random().nextInt(100) : random().nextInt(20);
+      for (int j = 0; j < length; j++) {
+        if (random().nextInt(5) == 0) {
+          text.append("leonardo ");
+          freqs[i]++;
+        } else {
+          text.append("vinci ");
+        }
+        lengths[i]++;
+      }
+      sumLengths += lengths[i];
+      final Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Store.YES));
+      doc.add(newTextField("title", text.toString(), Store.NO));
+      writer.addDocument(doc);
+    }
+    final IndexReader reader = writer.getReader();
+    writer.close();
+
+    final IndexSearcher searcher = newSearcher(reader);
+    searcher.setSimilarity(similarity);
+    final float avgdl = (float) sumLengths / numDocs;
+    final TopDocs topDocs = searcher.search(new BM25FBooleanTermQuery(new Term("title", "leonardo"), params), numDocs);
+    assertEquals(numDocs, topDocs.totalHits);
+    for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+      final int i = Integer.parseInt(searcher.doc(scoreDoc.doc).get("id"));
+      final float length = exact ? lengths[i]
+          : similarity.decodeNormValue(similarity.encodeNormValue(1, lengths[i]));
+      final float acc = freqs[i] * 2 / (0.25f + 0.75f * length / avgdl);
+      final float idf = similarity.idf(numDocs, numDocs);
+      assertEquals(idf * acc / (acc + 1.2f), scoreDoc.score, 0.0001f);
+    }
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testEncodedLengths() throws IOException {
+    assertLengthNormalization(false);
+  }
+
+  @Test
+  public void testExactLengths() throws IOException {
+    assertLengthNormalization(true);
+  }
+
+}